@@ -0,0 +1,582 @@
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+
+/**
+ * Generates the VM code of a jack class from its syntax tree (see CompilationEngine).
+ * The code is generated by a series of generateXxx() routines, one for every kind of node Xxx of the tree,
+ *  each of which writes the code of the subtree of its node.
+ * The code of every subroutine is generated into a control flow graph first (see ControlFlowGraph),
+ *  which is then written into the output.
+ * The subroutines of a class may be generated in parallel (see generateClass(ForkJoinPool)).
+ */
+class CodeGenerator {
+
+
+    // The keywords, indexed by their ordinals (the values of keyword nodes)
+    private static final JackTokenizer.Keyword[] keywords = JackTokenizer.Keyword.values();
+
+    // The number of chunks of subroutines generated in parallel, per worker of the pool (see generateClass())
+    private static final int CHUNKS_PER_WORKER = 4;
+
+
+    //*** Data Members ***//
+
+    // The syntax tree of the class
+    private SyntaxTree tree;
+
+    // Writes to the output vm file.
+    private VMWriter writer;
+
+    // The control flow graph of the subroutine being generated, which its code is generated into
+    private ControlFlowGraph graph;
+
+    // Keeps correspondence between identifiers and their properties (kind, type, index) on the VM
+    private SymbolTable symbolTable;
+
+    // The pool of the identifiers of the program
+    private IdentifierPool identifiers;
+
+    // The id of the name of the class
+    private int className;
+
+    // The id of the "this" identifier
+    private int thisName;
+
+    // Counter for the number of While clauses met in a subroutine, for creating unique labels
+    private int whileLabelCount;
+
+    // Counter for the number of If clauses met in a subroutine, for creating unique labels
+    private int ifLabelCount;
+
+
+    /**
+     * Creates a new code generator of the given syntax tree into the given output.
+     *
+     * @param tree the syntax tree of the class.
+     * @param writer the VMWriter object of the output file.
+     * @param table the symbol table of the class.
+     * @param identifiers the pool of the identifiers of the program.
+     */
+    CodeGenerator(SyntaxTree tree, VMWriter writer, SymbolTable table, IdentifierPool identifiers) {
+        this.tree = tree;
+        this.writer = writer;
+        this.symbolTable = table;
+        this.identifiers = identifiers;
+        graph = new ControlFlowGraph();
+        thisName = identifiers.intern("this");
+    }
+
+
+    /**
+     * Creates a code generator of some of the subroutines of the class of another generator,
+     *  which shares its class scope (but nothing it can modify) and writes into the given output.
+     *
+     * @param classGenerator the generator of the class, whose class scope is complete.
+     * @param writer the VMWriter object of the output of the subroutines.
+     */
+    private CodeGenerator(CodeGenerator classGenerator, VMWriter writer) {
+        this.tree = classGenerator.tree;
+        this.writer = writer;
+        this.symbolTable = new SymbolTable(classGenerator.symbolTable);
+        this.identifiers = classGenerator.identifiers;
+        graph = new ControlFlowGraph();
+        className = classGenerator.className;
+        thisName = classGenerator.thisName;
+    }
+
+
+    /**
+     * Generates the code of the whole class.
+     */
+    void generateClass() {
+
+        int root = 0;
+        className = tree.value(root);
+        generateMembers(tree.firstChild(root));
+    }
+
+
+    /**
+     * Generates the code of the class members (variable declarations and subroutines) from the given one on.
+     *
+     * @param first the node of the first member.
+     */
+    private void generateMembers(int first) {
+
+        for (int node = first; node != SyntaxTree.NONE; node = tree.nextSibling(node)) {
+            if (tree.kind(node) == SyntaxTree.NodeKind.CLASS_VAR_DEC) {
+                defineClassVariables(node);
+            }
+            else {
+                generateSubroutine(node);
+            }
+        }
+    }
+
+
+    /**
+     * Defines the variables of a class variable declaration in the symbol table.
+     *
+     * @param declaration the CLASS_VAR_DEC node.
+     */
+    private void defineClassVariables(int declaration) {
+        JackTokenizer.Keyword kind = keywords[tree.value(declaration)];
+        defineVariables(declaration, SymbolTable.Kind.valueOf(kind.toString()));
+    }
+
+
+    /**
+     * Generates the code of the whole class like generateClass(), but once the class scope is complete,
+     *  splits the subroutines into chunks of consecutive subroutines (of about the same number of nodes),
+     *  which are generated in parallel by the workers of the given pool, each into a buffer of its own.
+     * The buffers are written in order, so the code is identical to that of sequential generation.
+     * A class whose variable declarations don't all precede its subroutines is generated sequentially.
+     *
+     * @param pool the pool of the workers generating the chunks.
+     */
+    void generateClass(ForkJoinPool pool) {
+
+        int root = 0;
+        className = tree.value(root);
+
+        int node = tree.firstChild(root);
+        while (node != SyntaxTree.NONE && tree.kind(node) == SyntaxTree.NodeKind.CLASS_VAR_DEC) {
+            defineClassVariables(node);
+            node = tree.nextSibling(node);
+        }
+
+        int firstSubroutine = node;
+        int subroutines = 0;
+        for (; node != SyntaxTree.NONE; node = tree.nextSibling(node)) {
+            if (tree.kind(node) != SyntaxTree.NodeKind.SUBROUTINE) {
+                subroutines = 0; // a late class variable declaration changes the scope of the following subroutines
+                break;
+            }
+            subroutines++;
+        }
+        if (subroutines < 2) {
+            generateMembers(firstSubroutine);
+            return;
+        }
+
+        // the nodes are numbered in pre-order, so the nodes of a subroutine run up to the next subroutine
+        int chunkCount = Math.min(subroutines, pool.getParallelism() * CHUNKS_PER_WORKER);
+        int chunkSize = (tree.size() - firstSubroutine) / chunkCount;
+        List<ForkJoinTask<String>> chunks = new ArrayList<>();
+        int chunkStart = firstSubroutine;
+
+        for (node = firstSubroutine; node != SyntaxTree.NONE; ) {
+            int next = tree.nextSibling(node);
+            int end = next != SyntaxTree.NONE ? next : tree.size();
+            if (end - chunkStart >= chunkSize || next == SyntaxTree.NONE) {
+                int first = chunkStart;
+                chunks.add(pool.submit(() -> generateSubroutines(first, next)));
+                chunkStart = end;
+            }
+            node = next;
+        }
+
+        for (ForkJoinTask<String> chunk : chunks) {
+            writer.writeCode(chunk.join());
+        }
+    }
+
+
+    /**
+     * Generates the code of a chunk of consecutive subroutines into a buffer, by a generator of its own.
+     *
+     * @param first the SUBROUTINE node of the first subroutine of the chunk.
+     * @param end the node following the last subroutine of the chunk (NONE if it is the last of the class).
+     * @return the code of the subroutines.
+     */
+    private String generateSubroutines(int first, int end) {
+
+        StringWriter output = new StringWriter();
+        VMWriter chunkWriter = new VMWriter(output, identifiers);
+        CodeGenerator generator = new CodeGenerator(this, chunkWriter);
+
+        for (int node = first; node != end; node = tree.nextSibling(node)) {
+            generator.generateSubroutine(node);
+        }
+        chunkWriter.close();
+        return output.toString();
+    }
+
+
+    /**
+     * Defines the variables of a declaration (a TYPE node followed by NAME nodes) in the symbol table.
+     *
+     * @param declaration the declaration node.
+     * @param kind the kind of the variables.
+     */
+    private void defineVariables(int declaration, SymbolTable.Kind kind) {
+
+        int type = tree.firstChild(declaration);
+        for (int name = tree.nextSibling(type); name != SyntaxTree.NONE; name = tree.nextSibling(name)) {
+            symbolTable.define(tree.value(name), tree.value(type), kind);
+        }
+    }
+
+
+    /**
+     * Generates the code of a method, constructor, or function.
+     *
+     * @param subroutine the SUBROUTINE node.
+     */
+    private void generateSubroutine(int subroutine) {
+        graph.clear();
+        symbolTable.startSubroutine();
+        whileLabelCount = 0;
+        ifLabelCount = 0;
+
+        JackTokenizer.Keyword type = keywords[tree.value(subroutine)];
+        int name = tree.nextSibling(tree.firstChild(subroutine));
+        int parameters = tree.nextSibling(name);
+
+        if (type == JackTokenizer.Keyword.METHOD) {
+            symbolTable.define(thisName, className, SymbolTable.Kind.ARG);
+        }
+        int parameterType = tree.firstChild(parameters);
+        while (parameterType != SyntaxTree.NONE) {
+            int parameterName = tree.nextSibling(parameterType);
+            symbolTable.define(tree.value(parameterName), tree.value(parameterType), SymbolTable.Kind.ARG);
+            parameterType = tree.nextSibling(parameterName);
+        }
+
+        int node = tree.nextSibling(parameters);
+        while (tree.kind(node) == SyntaxTree.NodeKind.VAR_DEC) {
+            defineVariables(node, SymbolTable.Kind.VAR);
+            node = tree.nextSibling(node);
+        }
+        graph.writeFunction(className, tree.value(name), symbolTable.varCount(SymbolTable.Kind.VAR));
+
+        if (type == JackTokenizer.Keyword.CONSTRUCTOR) {
+            graph.writePush(VMWriter.Segment.CONST, symbolTable.varCount(SymbolTable.Kind.FIELD));
+            graph.writeCall("Memory.alloc", 1);
+            graph.writePop(VMWriter.Segment.POINTER, 0);
+        } else if (type == JackTokenizer.Keyword.METHOD) {
+            graph.writePush(VMWriter.Segment.ARG, 0);
+            graph.writePop(VMWriter.Segment.POINTER, 0);
+        }
+        generateStatements(node);
+
+        graph.finish();
+        graph.writeTo(writer);
+    }
+
+
+    /**
+     * Generates the code of a sequence of statements.
+     *
+     * @param statements the STATEMENTS node.
+     */
+    private void generateStatements(int statements) {
+
+        for (int node = tree.firstChild(statements); node != SyntaxTree.NONE; node = tree.nextSibling(node)) {
+
+            switch (tree.kind(node)) {
+                case LET:
+                    generateLet(node);
+                    break;
+                case IF:
+                    generateIf(node);
+                    break;
+                case WHILE:
+                    generateWhile(node);
+                    break;
+                case DO:
+                    generateDo(node);
+                    break;
+                case RETURN:
+                    generateReturn(node);
+                    break;
+            }
+        }
+    }
+
+
+    /**
+     * Generates the code of a subroutine call.
+     *
+     * @param call the CALL or QUALIFIED_CALL node.
+     */
+    private void generateSubroutineCall(int call) {
+
+        int subroutineName = tree.value(call);
+        int subroutineClass;
+        int nArgs = 0;
+        int argument = tree.firstChild(call);
+
+        if (tree.kind(call) == SyntaxTree.NodeKind.QUALIFIED_CALL) {
+            int identifier = tree.value(argument);
+            subroutineClass = identifier;
+            argument = tree.nextSibling(argument);
+
+            if (symbolTable.kindOf(identifier) != SymbolTable.Kind.NONE) {
+
+                graph.writePush(symbolTable.kindOf(identifier).toSegment(), symbolTable.indexOf(identifier));
+                nArgs++;
+                subroutineClass = symbolTable.typeOf(identifier);
+            }
+        }
+        else {
+            subroutineClass = className;
+            graph.writePush(VMWriter.Segment.POINTER, 0);
+            nArgs++;
+        }
+
+        for (; argument != SyntaxTree.NONE; argument = tree.nextSibling(argument)) {
+            generateExpression(argument);
+            nArgs++;
+        }
+        graph.writeCall(subroutineClass, subroutineName, nArgs);
+    }
+
+
+    /**
+     * Generates the code of a do statement.
+     *
+     * @param statement the DO node.
+     */
+    private void generateDo(int statement) {
+        generateSubroutineCall(tree.firstChild(statement));
+        graph.writePop(VMWriter.Segment.TEMP, 0);
+    }
+
+
+    /**
+     * Generates the code of a let statement.
+     *
+     * @param statement the LET node.
+     */
+    private void generateLet(int statement) {
+
+        int varName = tree.value(tree.firstChild(statement));
+        int expression = tree.nextSibling(tree.firstChild(statement));
+        boolean isArray = tree.nextSibling(expression) != SyntaxTree.NONE;
+
+        if (isArray) {
+            graph.writePush(symbolTable.kindOf(varName).toSegment(), symbolTable.indexOf(varName));
+            generateExpression(expression);
+            graph.writeArithmetic(VMWriter.Command.ADD);
+            expression = tree.nextSibling(expression);
+        }
+
+        generateExpression(expression);
+
+        if (isArray) {
+            graph.writePop(VMWriter.Segment.TEMP, 1);
+            graph.writePop(VMWriter.Segment.POINTER, 1);
+            graph.writePush(VMWriter.Segment.TEMP, 1);
+            graph.writePop(VMWriter.Segment.THAT, 0);
+        }
+        else {
+            graph.writePop(symbolTable.kindOf(varName).toSegment(), symbolTable.indexOf(varName));
+        }
+    }
+
+
+    /**
+     * Generates the code of a while statement.
+     *
+     * @param statement the WHILE node.
+     */
+    private void generateWhile(int statement) {
+
+        String labelSuffix = Integer.toString(whileLabelCount);
+        whileLabelCount++;
+
+        int condition = tree.firstChild(statement);
+        int loop = graph.newBlock("WHILE" + labelSuffix);
+        int end = graph.newBlock("END_WHILE" + labelSuffix);
+
+        graph.startBlock(loop);
+        generateExpression(condition);
+        graph.writeArithmetic(VMWriter.Command.NOT);
+
+        graph.writeIf(end);
+
+        generateStatements(tree.nextSibling(condition));
+
+        graph.writeGoto(loop);
+        graph.startBlock(end);
+    }
+
+
+    /**
+     * Generates the code of an if statement, possibly with a trailing else clause.
+     *
+     * @param statement the IF node.
+     */
+    private void generateIf(int statement) {
+
+        String labelSuffix = Integer.toString(ifLabelCount);
+        ifLabelCount++;
+
+        int condition = tree.firstChild(statement);
+        int thenStatements = tree.nextSibling(condition);
+        int elseStatements = tree.nextSibling(thenStatements);
+        int ifFalse = graph.newBlock("IF_FALSE" + labelSuffix);
+        int end = elseStatements != SyntaxTree.NONE ? graph.newBlock("END_IF" + labelSuffix)
+                                                        : ControlFlowGraph.NONE;
+
+        generateExpression(condition);
+        graph.writeArithmetic(VMWriter.Command.NOT);
+
+        graph.writeIf(ifFalse);
+
+        generateStatements(thenStatements);
+
+        if (elseStatements != SyntaxTree.NONE) {
+            graph.writeGoto(end);
+        }
+        graph.startBlock(ifFalse);
+
+        if (elseStatements != SyntaxTree.NONE) {
+            generateStatements(elseStatements);
+            graph.startBlock(end);
+        }
+    }
+
+
+    /**
+     * Generates the code of a return statement.
+     *
+     * @param statement the RETURN node.
+     */
+    private void generateReturn(int statement) {
+
+        if (tree.firstChild(statement) != SyntaxTree.NONE) {
+            generateExpression(tree.firstChild(statement));
+        }
+        else {
+            graph.writePush(VMWriter.Segment.CONST, 0);
+        }
+        graph.writeReturn();
+    }
+
+
+    /**
+     * Generates the code of an expression: its first term, followed by every binary operation on the result.
+     *
+     * @param expression the EXPRESSION node.
+     */
+    private void generateExpression(int expression) {
+
+        for (int node = tree.firstChild(expression); node != SyntaxTree.NONE; node = tree.nextSibling(node)) {
+
+            if (tree.kind(node) != SyntaxTree.NodeKind.BINARY) {
+                generateTerm(node);
+                continue;
+            }
+            if (tree.firstChild(node) != SyntaxTree.NONE) {
+                generateTerm(tree.firstChild(node));
+            }
+
+            char operator = (char) tree.value(node);
+            if (operator == '*') {
+                graph.writeCall("Math.multiply", 2);
+            } else if (operator == '/') {
+                graph.writeCall("Math.divide", 2);
+            } else {
+                graph.writeArithmetic(CompilationEngine.binaryCommand(operator));
+            }
+        }
+    }
+
+
+    /**
+     * Generates the code of a string constant.
+     *
+     * @param term the STRING_CONST node.
+     */
+    private void generateStringConst(int term) {
+        CharSequence value = tree.string(term);
+
+        graph.writePush(VMWriter.Segment.CONST, value.length());
+        graph.writeCall("String.new", 1);
+
+        for (int i = 0; i < value.length(); i++) {
+            graph.writePush(VMWriter.Segment.CONST, (int) value.charAt(i));
+            graph.writeCall("String.appendChar", 2);
+        }
+    }
+
+
+    /**
+     * Generates the code of a keyword constant.
+     *
+     * @param term the KEYWORD_CONST node.
+     */
+    private void generateKeywordConst(int term) {
+        JackTokenizer.Keyword keyword = keywords[tree.value(term)];
+
+        if (keyword == JackTokenizer.Keyword.TRUE) {
+            graph.writePush(VMWriter.Segment.CONST, 0);
+            graph.writeArithmetic(VMWriter.Command.NOT);
+        }
+        else if (keyword == JackTokenizer.Keyword.THIS) {
+            graph.writePush(VMWriter.Segment.POINTER, 0);
+        }
+        else {
+            graph.writePush(VMWriter.Segment.CONST, 0);
+        }
+    }
+
+
+    /**
+     * Generates the code of a term.
+     *
+     * @param term the node of the term.
+     */
+    private void generateTerm(int term) {
+
+        int name = tree.value(term);
+
+        switch (tree.kind(term)) {
+            case INT_CONST:
+                graph.writePush(VMWriter.Segment.CONST, tree.value(term));
+                break;
+
+            case STRING_CONST:
+                generateStringConst(term);
+                break;
+
+            case KEYWORD_CONST:
+                generateKeywordConst(term);
+                break;
+
+            case VARIABLE:
+                graph.writePush(symbolTable.kindOf(name).toSegment(), symbolTable.indexOf(name));
+                break;
+
+            case ARRAY_ELEMENT:
+                graph.writePush(symbolTable.kindOf(name).toSegment(), symbolTable.indexOf(name));
+                generateExpression(tree.firstChild(term));
+                graph.writeArithmetic(VMWriter.Command.ADD);
+                graph.writePop(VMWriter.Segment.POINTER, 1);
+                graph.writePush(VMWriter.Segment.THAT, 0);
+                break;
+
+            case CALL:
+            case QUALIFIED_CALL:
+                generateSubroutineCall(term);
+                break;
+
+            case UNARY:
+                if (tree.firstChild(term) != SyntaxTree.NONE) {
+                    generateTerm(tree.firstChild(term));
+                }
+                graph.writeArithmetic(tree.value(term) == '-' ? VMWriter.Command.NEG : VMWriter.Command.NOT);
+                break;
+
+            case EXPRESSION:
+                generateExpression(term);
+                break;
+        }
+    }
+}
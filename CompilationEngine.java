@@ -1,18 +1,66 @@
-import java.io.IOException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
 
 
 /**
- * Effects the actual compilation output.
- * Gets its input from a JackTokenizer and emits its parsed structure into an output file.
+ * Effects the parsing of a jack class.
+ * Gets its input from a JackTokenizer and emits its parsed structure into a syntax tree,
+ *  from which the code is then generated (see CodeGenerator).
  * The output is generated by a series of compileXxx() routines,
  *  one for every syntactic element Xxx of the Jack grammar.
  * The contract between these routines is that each compileXxx() routine should read
  *  the syntactic construct Xxx from the input, output the parsing of Xxx,
  *  and advance the tokenizer exactly beyond Xxx.
  * Thus, compileXxx() may only be called if indeed Xxx is the next syntactic element of the input.
+ *
+ * The input is checked against the grammar as it is parsed. On a syntax error, the error is recorded,
+ *  and the parser recovers in panic mode: it abandons the statement (or class member) being parsed,
+ *  skips the input up to the next synchronization point (a ';', a '}' or a statement keyword),
+ *  and goes on from there, so that a single pass finds all of the syntax errors of a class.
  */
 class CompilationEngine {
+
+
+    // Operator classes of the symbols (see operatorClass())
+    private static final byte NOT_OPERATOR = 0;
+    private static final byte BINARY_OPERATOR = 1;
+    private static final byte SELECTOR = 2; // '[', '(' or '.', which continue an identifier term
+
+    // The operator class of every ASCII character, and the VM command of every binary operator
+    // (null for '*' and '/', which are calls of the Math class), indexed by the character
+    private static final byte[] operatorClasses = new byte[128];
+    private static final VMWriter.Command[] binaryCommands = new VMWriter.Command[128];
+
+    static {
+        for (char c : "+-*/&|<>=".toCharArray()) {
+            operatorClasses[c] = BINARY_OPERATOR;
+        }
+        for (char c : "[(.".toCharArray()) {
+            operatorClasses[c] = SELECTOR;
+        }
+        binaryCommands['+'] = VMWriter.Command.ADD;
+        binaryCommands['-'] = VMWriter.Command.SUB;
+        binaryCommands['='] = VMWriter.Command.EQ;
+        binaryCommands['<'] = VMWriter.Command.LT;
+        binaryCommands['>'] = VMWriter.Command.GT;
+        binaryCommands['|'] = VMWriter.Command.OR;
+        binaryCommands['&'] = VMWriter.Command.AND;
+    }
+
+    // The keywords which start a statement, a class member (class variable or subroutine) declaration,
+    // a primitive type and a keyword constant
+    private static final EnumSet<JackTokenizer.Keyword> statementKeywords = EnumSet.of(
+            JackTokenizer.Keyword.LET, JackTokenizer.Keyword.IF, JackTokenizer.Keyword.WHILE,
+            JackTokenizer.Keyword.DO, JackTokenizer.Keyword.RETURN);
+    private static final EnumSet<JackTokenizer.Keyword> memberKeywords = EnumSet.of(
+            JackTokenizer.Keyword.STATIC, JackTokenizer.Keyword.FIELD, JackTokenizer.Keyword.CONSTRUCTOR,
+            JackTokenizer.Keyword.FUNCTION, JackTokenizer.Keyword.METHOD);
+    private static final EnumSet<JackTokenizer.Keyword> primitiveTypes = EnumSet.of(
+            JackTokenizer.Keyword.INT, JackTokenizer.Keyword.CHAR, JackTokenizer.Keyword.BOOLEAN);
+    private static final EnumSet<JackTokenizer.Keyword> keywordConstants = EnumSet.of(
+            JackTokenizer.Keyword.TRUE, JackTokenizer.Keyword.FALSE, JackTokenizer.Keyword.NULL,
+            JackTokenizer.Keyword.THIS);
     
     
     //*** Data Members ***//
@@ -20,531 +68,700 @@ class CompilationEngine {
     // Tokenizer of the input jack code file.
     private JackTokenizer tokenizer;
 
-    // Writes to the output xml file.
-    private VMWriter writer;
-    
-    // Keeps correspondence between identifiers and their properties (kind, type, index) on the VM
-    private SymbolTable symbolTable;
-
-    // The name of the currently compiled class
-    private String className;
+    // The syntax tree of the input, which the parsing is emitted into
+    private SyntaxTree tree;
 
-    // Keeps correspondence between binary operators (chars) and their enum constant representation
-    private HashMap<Character, VMWriter.Command> binaryOps;
+    // Interns the identifiers of the program
+    private IdentifierPool identifiers;
 
-    // Counter for the number of While clauses met in a subroutine, for creating unique labels
-    private int whileLabelCount;
-    
-    // Counter for the number of If clauses met in a subroutine, for creating unique labels
-    private int ifLabelCount;
+    // The descriptions of the syntax errors found so far (with their locations)
+    private List<String> syntaxErrors;
     
     
     /**
-     * Creates a new compilation engine with the given input and output.
+     * Creates a new compilation engine with the given input.
      * The next routine called must be compileClass().
      *
      * @param input the tokenizer object of the input file.
-     * @param writer the VMWriter object of the output file.
+     * @param identifiers the pool of the identifiers of the program.
      */
-    CompilationEngine(JackTokenizer input, VMWriter writer, SymbolTable table) {
+    CompilationEngine(JackTokenizer input, IdentifierPool identifiers) {
+        this(input, identifiers, new SyntaxTree());
+    }
 
+
+    /**
+     * Creates a new compilation engine with the given input, which parses into the given tree
+     *  (emptied first, so that a tree can be reused as the arena of several files).
+     *
+     * @param input the tokenizer object of the input file.
+     * @param identifiers the pool of the identifiers of the program.
+     * @param tree the tree to parse into.
+     */
+    CompilationEngine(JackTokenizer input, IdentifierPool identifiers, SyntaxTree tree) {
         this.tokenizer = input;
-        this.writer = writer;
-        this.symbolTable = table;
-        
-        initBinaryOps();
+        this.identifiers = identifiers;
+        this.tree = tree;
+        this.syntaxErrors = new ArrayList<>();
+        tree.clear();
     }
-    
-    
+
+
     /**
-     * Initializes the binary operators Map.
+     * Returns the operator class of a symbol.
      */
-    private void initBinaryOps() {
-        binaryOps = new HashMap<>();
-        
-        binaryOps.put('+', VMWriter.Command.ADD);
-        binaryOps.put('-', VMWriter.Command.SUB);
-        binaryOps.put('=', VMWriter.Command.EQ);
-        binaryOps.put('<', VMWriter.Command.LT);
-        binaryOps.put('>', VMWriter.Command.GT);
-        binaryOps.put('|', VMWriter.Command.OR);
-        binaryOps.put('&', VMWriter.Command.AND);
+    private static byte operatorClass(char symbol) {
+        return symbol < operatorClasses.length ? operatorClasses[symbol] : NOT_OPERATOR;
+    }
+
+
+    /**
+     * Returns the VM command of a binary operator.
+     *
+     * @param operator a binary operator character.
+     * @return the VM command of the operator, or null for '*' and '/' (which are calls of the Math class).
+     */
+    static VMWriter.Command binaryCommand(char operator) {
+        return binaryCommands[operator];
     }
 
 
     /**
      * Compiles a complete class.
+     * A syntax error doesn't stop the parsing: the parser recovers from it, and goes on to find the next ones
+     *  (see syntaxErrors()). The tree of a class with syntax errors is incomplete, and mustn't be translated.
+     *
+     * @return the syntax tree of the class.
      */
-    void compileClass() throws IOException {
-        tokenizer.advance(); // skip class keyword
-        className = tokenizer.identifier();
-        tokenizer.advanceTwice(); // skip to classVarDec*
+    SyntaxTree compileClass() {
+
+        int root = tree.open(SyntaxTree.NodeKind.CLASS, tokenizer.tokenIndex(), SyntaxTree.NONE);
+        try {
+            if (!isKeyword(JackTokenizer.Keyword.CLASS)) {
+                throw syntaxError("'class'");
+            }
+            tokenizer.advance(); // class
+            tree.setValue(root, identifier("a class name"));
+            tokenizer.advance();
+            expectSymbol('{');
+        }
+        catch (SyntaxError e) {
+            // skip the rest of the class header, which ends with the opening bracket of the class
+            while (tokenizer.tokenType() != null && !isSymbol('{') && !isMemberStart()) {
+                tokenizer.advance();
+            }
+            if (isSymbol('{')) {
+                tokenizer.advance();
+            }
+        }
+
+        while (tokenizer.tokenType() != null && !isSymbol('}')) {
+
+            int depth = tree.depth();
+            try {
+                compileClassMember();
+            }
+            catch (SyntaxError e) {
+                tree.closeTo(depth);
+                synchronizeMember();
+            }
+        }
+
+        // at the end of the input after an error, the closing bracket may have been skipped by the recovery
+        if (tokenizer.tokenType() != null || syntaxErrors.isEmpty()) {
+            try {
+                expectSymbol('}');
+                if (tokenizer.tokenType() != null) {
+                    throw syntaxError("the end of the input");
+                }
+            }
+            catch (SyntaxError e) {
+                // nothing follows the class to recover into
+            }
+        }
+        tree.closeTo(0);
+        return tree;
+    }
+
+
+    /**
+     * @return the descriptions of the syntax errors found by compileClass() (with their locations), in order.
+     */
+    List<String> syntaxErrors() {
+        return syntaxErrors;
+    }
 
-        while (tokenizer.tokenType() == JackTokenizer.TokenType.KEYWORD) {
+
+    /**
+     * Records a syntax error at the current token.
+     *
+     * @param expected a description of what was expected instead of the current token.
+     * @return the error to throw, unwinding the parsing up to the next synchronization point.
+     */
+    private SyntaxError syntaxError(String expected) {
+        // the end of the input is located at the last token (an empty input has none, and is located at its start)
+        int line = Math.max(tokenizer.line(), 1);
+        int column = Math.max(tokenizer.column(), 1);
+        syntaxErrors.add("line " + line + ", column " + column + ": expected " + expected
+                         + ", found " + describeToken());
+        return new SyntaxError();
+    }
+
+
+    /**
+     * @return a description of the current token, for error messages.
+     */
+    private String describeToken() {
+
+        if (tokenizer.tokenType() == null) {
+            return "the end of the input";
+        }
+        switch (tokenizer.tokenType()) {
+            case KEYWORD:
+                return "keyword '" + tokenizer.keyword().toString().toLowerCase() + "'";
+            case SYMBOL:
+                return "'" + tokenizer.symbol() + "'";
+            case IDENTIFIER:
+                return "identifier '" + tokenizer.identifier() + "'";
+            case INT_CONST:
+                return "integer constant " + tokenizer.intVal();
+            case STRING_CONST:
+                return "string constant \"" + tokenizer.stringVal() + "\"";
+            default:
+                return String.valueOf(tokenizer.lexicalError());
+        }
+    }
+
+
+    /**
+     * @return whether the current token is the given symbol.
+     */
+    private boolean isSymbol(char symbol) {
+        return tokenizer.tokenType() == JackTokenizer.TokenType.SYMBOL && tokenizer.symbol() == symbol;
+    }
+
+
+    /**
+     * @return whether the current token is the given keyword.
+     */
+    private boolean isKeyword(JackTokenizer.Keyword keyword) {
+        return tokenizer.tokenType() == JackTokenizer.TokenType.KEYWORD && tokenizer.keyword() == keyword;
+    }
+
+
+    /**
+     * @return whether the current token is a keyword which starts a statement.
+     */
+    private boolean isStatementStart() {
+        return tokenizer.tokenType() == JackTokenizer.TokenType.KEYWORD
+               && statementKeywords.contains(tokenizer.keyword());
+    }
+
+
+    /**
+     * @return whether the current token is a keyword which starts a class variable or subroutine declaration.
+     */
+    private boolean isMemberStart() {
+        return tokenizer.tokenType() == JackTokenizer.TokenType.KEYWORD
+               && memberKeywords.contains(tokenizer.keyword());
+    }
+
+
+    /**
+     * Skips the given symbol, which must be the current token.
+     *
+     * @throws SyntaxError if the current token is another token.
+     */
+    private void expectSymbol(char symbol) {
+        if (!isSymbol(symbol)) {
+            throw syntaxError("'" + symbol + "'");
+        }
+        tokenizer.advance();
+    }
+
+
+    /**
+     * Returns the current token, which must be an identifier (the tokenizer isn't advanced).
+     *
+     * @param expected a description of the expected identifier, for error messages.
+     * @return the id of the identifier.
+     * @throws SyntaxError if the current token isn't an identifier.
+     */
+    private int identifier(String expected) {
+        if (tokenizer.tokenType() != JackTokenizer.TokenType.IDENTIFIER) {
+            throw syntaxError(expected);
+        }
+        return tokenizer.identifierId();
+    }
+
+
+    /**
+     * Recovers from a syntax error in a statement: skips the rest of the statement,
+     *  up to and including a ';', or up to a '}', a statement keyword, a class member keyword or the end of the input.
+     * A block of statements met on the way (the body of the broken statement) is parsed rather than skipped,
+     *  so that its own errors are found, and its brackets are kept matched.
+     */
+    private void synchronizeStatement() {
+
+        while (tokenizer.tokenType() != null && !isSymbol('}') && !isStatementStart() && !isMemberStart()) {
+
+            if (isSymbol(';')) {
+                tokenizer.advance();
+                return;
+            }
+            if (isSymbol('{')) {
+                compileBlock();
+                if (!isKeyword(JackTokenizer.Keyword.ELSE)) {
+                    return;
+                }
+            }
+            tokenizer.advance();
+        }
+    }
+
+
+    /**
+     * Recovers from a syntax error in a class member: skips the rest of the member,
+     *  up to a class member keyword or the end of the input.
+     * A block met on the way (the body of the broken subroutine) is parsed rather than skipped,
+     *  so that its own errors are found.
+     */
+    private void synchronizeMember() {
+
+        while (tokenizer.tokenType() != null && !isMemberStart()) {
+
+            if (isSymbol('{')) {
+                int depth = tree.depth();
+                try {
+                    compileSubroutineBody();
+                    return;
+                }
+                catch (SyntaxError e) {
+                    tree.closeTo(depth);
+                    continue;
+                }
+            }
+            tokenizer.advance();
+        }
+    }
+
+
+    /**
+     * Compiles a class variable declaration or a subroutine.
+     */
+    private void compileClassMember() {
+
+        if (tokenizer.tokenType() == JackTokenizer.TokenType.KEYWORD) {
 
             switch (tokenizer.keyword()) {
                 case STATIC:
                 case FIELD:
                     compileClassVarDec();
-                    break;
+                    return;
                 case CONSTRUCTOR:
                 case FUNCTION:
                 case METHOD:
                     compileSubroutine();
-                    break;
+                    return;
             }
         }
+        throw syntaxError("a class variable or subroutine declaration");
     }
 
 
     /**
-     * A helper method for compiling variable declarations.
+     * A helper method for compiling the name of a declared variable or subroutine.
+     *
+     * @param expected a description of the name, for error messages.
      */
-    private void compileVarList(String type, SymbolTable.Kind kind) throws IOException {
-
-        while (tokenizer.symbol() == ',') {
+    private void compileName(String expected) {
+        tree.leaf(SyntaxTree.NodeKind.NAME, tokenizer.tokenIndex(), identifier(expected));
+        tokenizer.advance();
+    }
 
-            tokenizer.advance(); //,
 
-            String name =  tokenizer.identifier();
+    /**
+     * A helper method for compiling a type (a type keyword or a class name).
+     *
+     * @param returnType whether the type is the return type of a subroutine (which may be void).
+     */
+    private void compileType(boolean returnType) {
 
-            tokenizer.advance(); // varName
-            symbolTable.define(name, type, kind);
+        int type;
+        if (tokenizer.tokenType() == JackTokenizer.TokenType.KEYWORD
+                && (primitiveTypes.contains(tokenizer.keyword())
+                    || returnType && tokenizer.keyword() == JackTokenizer.Keyword.VOID)) {
+            type = identifiers.intern(tokenizer.keyword().toString().toLowerCase());
+        }
+        else if (tokenizer.tokenType() == JackTokenizer.TokenType.IDENTIFIER) {
+            type = tokenizer.identifierId();
+        }
+        else {
+            throw syntaxError(returnType ? "a type or void" : "a type");
         }
+        tree.leaf(SyntaxTree.NodeKind.TYPE, tokenizer.tokenIndex(), type);
+        tokenizer.advance();
     }
 
-    
+
     /**
-     * Compiles a static variable declaration or a field declaration.
+     * A helper method for compiling variable declarations.
      */
-    private void compileClassVarDec() throws IOException {
+    private void compileVarList() {
 
-        String kind =  tokenizer.keyword().toString(); // static|field
-        tokenizer.advance();
+        while (isSymbol(',')) {
 
-        String type;
-        if (tokenizer.tokenType() == JackTokenizer.TokenType.KEYWORD) {
-            type = tokenizer.keyword().toString().toLowerCase();
-        }
-        else {
-            type = tokenizer.identifier();
+            tokenizer.advance(); //,
+            compileName("a variable name"); // varName
         }
-        tokenizer.advance();
+    }
 
-        String varName =  tokenizer.identifier();
-        tokenizer.advance();
+    
+    /**
+     * Compiles a static variable declaration or a field declaration.
+     */
+    private void compileClassVarDec() {
+
+        tree.open(SyntaxTree.NodeKind.CLASS_VAR_DEC, tokenizer.tokenIndex(), tokenizer.keyword().ordinal());
+        tokenizer.advance(); // static|field
 
-        symbolTable.define(varName, type, SymbolTable.Kind.valueOf(kind));
-        compileVarList(type, SymbolTable.Kind.valueOf(kind));
+        compileType(false);
+        compileName("a variable name");
+        compileVarList();
+        tree.close();
 
-        tokenizer.advance(); //;
+        expectSymbol(';');
     }
     
     
     /**
      * A helper method for compiling the body of a subroutine.
-     *
-     * @param name the name of the subroutine to compile.
-     * @param type the type of the subroutine to compile (constructor/method/function).
      */
-    private void compileSubroutineBody(String name, JackTokenizer.Keyword type) throws IOException {
-        tokenizer.advance(); // {
-    
-        while (tokenizer.tokenType() == JackTokenizer.TokenType.KEYWORD
-                && tokenizer.keyword() == JackTokenizer.Keyword.VAR) {
-            compileVarDec();
-        }
-        writer.writeFunction(className + "." + name, symbolTable.varCount(SymbolTable.Kind.VAR));
+    private void compileSubroutineBody() {
+        expectSymbol('{');
     
-        if (type == JackTokenizer.Keyword.CONSTRUCTOR) {
-            writer.writePush(VMWriter.Segment.CONST, symbolTable.varCount(SymbolTable.Kind.FIELD));
-            writer.writeCall("Memory.alloc", 1);
-            writer.writePop(VMWriter.Segment.POINTER, 0);
-        } else if (type == JackTokenizer.Keyword.METHOD) {
-            writer.writePush(VMWriter.Segment.ARG, 0);
-            writer.writePop(VMWriter.Segment.POINTER, 0);
+        while (isKeyword(JackTokenizer.Keyword.VAR)) {
+
+            int depth = tree.depth();
+            try {
+                compileVarDec();
+            }
+            catch (SyntaxError e) {
+                tree.closeTo(depth);
+                synchronizeStatement();
+            }
         }
         compileStatements();
     
-        tokenizer.advance(); // }
+        expectSymbol('}');
     }
     
     
     /**
      * Compiles a complete method, constructor, or function.
      */
-    private void compileSubroutine() throws IOException {
-        symbolTable.startSubroutine();
-        whileLabelCount = 0;
-        ifLabelCount = 0;
-    
-        JackTokenizer.Keyword currentSubroutineType = tokenizer.keyword();
-        
-        tokenizer.advanceTwice(); // skip to subroutineName
+    private void compileSubroutine() {
 
-        String currentSubroutineName = tokenizer.identifier();
-        tokenizer.advanceTwice(); // skip to parameterList
-        
-        if (currentSubroutineType == JackTokenizer.Keyword.METHOD) {
-            symbolTable.define("this", className, SymbolTable.Kind.ARG);
-        }
+        tree.open(SyntaxTree.NodeKind.SUBROUTINE, tokenizer.tokenIndex(), tokenizer.keyword().ordinal());
+        tokenizer.advance(); // constructor|function|method
+
+        compileType(true);
+        compileName("a subroutine name"); // subroutineName
+        expectSymbol('(');
 
         compileParameterList();
-        tokenizer.advance(); // )
+        expectSymbol(')');
 
         // subroutineBody
-        compileSubroutineBody(currentSubroutineName, currentSubroutineType);
-    }
-    
-    
-    /**
-     * A helper method for compileParameterList().
-     * Compiles a single parameter, i.e. defines it in the symbol table.
-     */
-    private void defineParameter() throws IOException {
-        String type;
-        
-        if (tokenizer.tokenType() == JackTokenizer.TokenType.KEYWORD) {
-            type = tokenizer.keyword().toString().toLowerCase();
-        }
-    
-        else {
-            type = tokenizer.identifier();
-        }
-        tokenizer.advance();
-        String name =  tokenizer.identifier();
-        tokenizer.advance();
-    
-        symbolTable.define(name, type, SymbolTable.Kind.ARG);
+        compileSubroutineBody();
+        tree.close();
     }
     
     
     /**
      * Compiles a (possibly empty) parameter list, not including the enclosing brackets "()".
      */
-    private void compileParameterList() throws IOException {
+    private void compileParameterList() {
 
-        if (tokenizer.tokenType() != JackTokenizer.TokenType.SYMBOL) {
+        tree.open(SyntaxTree.NodeKind.PARAMETER_LIST, tokenizer.tokenIndex(), 0);
+        if (!isSymbol(')')) {
 
-            defineParameter();
+            compileType(false);
+            compileName("a parameter name");
 
-            while (tokenizer.symbol() == ',') {
+            while (isSymbol(',')) {
                 tokenizer.advance();
-                defineParameter();
+                compileType(false);
+                compileName("a parameter name");
             }
         }
+        tree.close();
     }
     
     
     /**
      * Compiles a variable declaration
      */
-    private void compileVarDec() throws IOException {
+    private void compileVarDec() {
 
+        tree.open(SyntaxTree.NodeKind.VAR_DEC, tokenizer.tokenIndex(), 0);
         tokenizer.advance(); // var
 
-        String type;
-        if (tokenizer.tokenType() == JackTokenizer.TokenType.KEYWORD) {
-            type = tokenizer.keyword().toString().toLowerCase();
-        }
-        else {
-            type = tokenizer.identifier();
-        }
-
-        tokenizer.advance(); // type
+        compileType(false);
+        compileName("a variable name"); // varName
+        compileVarList();
+        tree.close();
 
-        String varName =  tokenizer.identifier();
-        tokenizer.advance(); // varName
-
-        symbolTable.define(varName, type, SymbolTable.Kind.VAR);
-        compileVarList(type, SymbolTable.Kind.VAR);
-
-        tokenizer.advance(); //;
+        expectSymbol(';');
     }
     
     
     /**
      * Compiles a sequence of statements, not including the enclosing curly brackets "{}".
+     * A statement with a syntax error is skipped (see synchronizeStatement()), and the parsing goes on after it.
      */
-    private void compileStatements() throws IOException {
+    private void compileStatements() {
 
-        while (tokenizer.tokenType() == JackTokenizer.TokenType.KEYWORD) {
+        tree.open(SyntaxTree.NodeKind.STATEMENTS, tokenizer.tokenIndex(), 0);
+        while (tokenizer.tokenType() != null && !isSymbol('}') && !isMemberStart()) {
+
+            int depth = tree.depth();
+            try {
+                compileStatement();
+            }
+            catch (SyntaxError e) {
+                tree.closeTo(depth);
+                synchronizeStatement();
+            }
+        }
+        tree.close();
+    }
+
+
+    /**
+     * Compiles a single statement.
+     */
+    private void compileStatement() {
+
+        if (tokenizer.tokenType() == JackTokenizer.TokenType.KEYWORD) {
 
             switch (tokenizer.keyword()) {
                 case LET:
                     compileLet();
-                    break;
+                    return;
                 case IF:
                     compileIf();
-                    break;
+                    return;
                 case WHILE:
                     compileWhile();
-                    break;
+                    return;
                 case DO:
                     compileDo();
-                    break;
+                    return;
                 case RETURN:
                     compileReturn();
-                    break;
+                    return;
             }
         }
+        throw syntaxError("a statement");
     }
 
 
     /**
-     * A helper method for compiling subroutine calls.
+     * A helper method for compiling a sequence of statements, including the enclosing curly brackets "{}".
      */
-    private void compileSubroutineCall(String identifier) throws IOException {
+    private void compileBlock() {
+        expectSymbol('{');
+        compileStatements();
+        expectSymbol('}');
+    }
+
 
-        String subroutineName;
-        String subroutineClass = identifier;
-        int nArgs = 0;
+    /**
+     * A helper method for compiling subroutine calls.
+     *
+     * @param identifier the id of the identifier preceding the call (subroutineName|className|varName).
+     * @param token the index of the token of that identifier.
+     */
+    private void compileSubroutineCall(int identifier, int token) {
 
-        if (tokenizer.symbol() == '.') {
+        if (isSymbol('.')) {
             tokenizer.advance(); //.
-            subroutineName = tokenizer.identifier();
+            tree.open(SyntaxTree.NodeKind.QUALIFIED_CALL, token, identifier("a subroutine name"));
+            tree.leaf(SyntaxTree.NodeKind.NAME, token, identifier);
             tokenizer.advance();
-    
-            if (symbolTable.kindOf(identifier) != SymbolTable.Kind.NONE) {
-                
-                writer.writePush(symbolTable.kindOf(identifier).toSegment(), symbolTable.indexOf(identifier));
-                nArgs++;
-                subroutineClass = symbolTable.typeOf(identifier);
-            }
         }
         else {
-            subroutineName = identifier;
-            subroutineClass = className;
-            writer.writePush(VMWriter.Segment.POINTER, 0);
-            nArgs++;
+            tree.open(SyntaxTree.NodeKind.CALL, token, identifier);
         }
-        tokenizer.advance(); // (
+        expectSymbol('(');
 
-        if (tokenizer.tokenType() != JackTokenizer.TokenType.SYMBOL || tokenizer.symbol() != ')') {
-            nArgs += compileExpressionList();
+        if (!isSymbol(')')) {
+            compileExpressionList();
         }
-        writer.writeCall(subroutineClass + "." + subroutineName, nArgs);
+        expectSymbol(')');
+        tree.close();
     }
     
     
     /**
      * Compiles a do statement.
      */
-    private void compileDo() throws IOException {
+    private void compileDo() {
 
+        tree.open(SyntaxTree.NodeKind.DO, tokenizer.tokenIndex(), 0);
         tokenizer.advance(); // do keyword
 
-        String identifier = tokenizer.identifier(); // subroutineName|className|varName
+        int token = tokenizer.tokenIndex();
+        int identifier = identifier("a subroutine call"); // subroutineName|className|varName
         tokenizer.advance();
 
-        compileSubroutineCall(identifier);
+        compileSubroutineCall(identifier, token);
+        tree.close();
 
-        writer.writePop(VMWriter.Segment.TEMP, 0);
-
-        tokenizer.advanceTwice(); // ) and ;
+        expectSymbol(';');
     }
     
     
     /**
      * Compiles a let statement.
      */
-    private void compileLet() throws IOException {
+    private void compileLet() {
 
+        tree.open(SyntaxTree.NodeKind.LET, tokenizer.tokenIndex(), 0);
         tokenizer.advance(); // skip let
 
-        String varName = tokenizer.identifier();
-        boolean isArray = false;
-
-        tokenizer.advance(); // skip varName
+        compileName("a variable name"); // varName
         
-        if (tokenizer.symbol() == '[') {
-            isArray = true;
-            writer.writePush(symbolTable.kindOf(varName).toSegment(), symbolTable.indexOf(varName));
-            
+        if (isSymbol('[')) {
             tokenizer.advance(); // [
             compileExpression();
-            tokenizer.advance(); // skip ]
-            
-            writer.writeArithmetic(VMWriter.Command.ADD);
+            expectSymbol(']');
         }
-        tokenizer.advance(); // skip =
+        expectSymbol('=');
 
         compileExpression();
-        
-        if (isArray) {
-            writer.writePop(VMWriter.Segment.TEMP, 1);
-            writer.writePop(VMWriter.Segment.POINTER, 1);
-            writer.writePush(VMWriter.Segment.TEMP, 1);
-            writer.writePop(VMWriter.Segment.THAT, 0);
-        }
-        else {
-            writer.writePop(symbolTable.kindOf(varName).toSegment(), symbolTable.indexOf(varName));
-        }
-        tokenizer.advance(); // skip ;
+        tree.close();
+
+        expectSymbol(';');
     }
     
     
     /**
      * Compiles a while statement.
      */
-    private void compileWhile() throws IOException {
-        
-        String labelSuffix = Integer.toString(whileLabelCount);
-        whileLabelCount++;
+    private void compileWhile() {
 
-        tokenizer.advanceTwice(); // while and (
+        tree.open(SyntaxTree.NodeKind.WHILE, tokenizer.tokenIndex(), 0);
+        tokenizer.advance(); // while
+        expectSymbol('(');
 
-        writer.writeLabel("WHILE" + labelSuffix);
         compileExpression();
-        writer.writeArithmetic(VMWriter.Command.NOT);
-
-        writer.writeIf("END_WHILE" + labelSuffix);
 
-        tokenizer.advanceTwice(); // ) and {
-        compileStatements();
-        tokenizer.advance(); // }
-
-        writer.writeGoto("WHILE" + labelSuffix);
-        writer.writeLabel("END_WHILE" + labelSuffix);
+        expectSymbol(')');
+        compileBlock();
+        tree.close();
     }
     
     
     /**
      * Compiles an if statement, possibly with a trailing else clause.
      */
-    private void compileIf() throws IOException {
-    
-        String labelSuffix = Integer.toString(ifLabelCount);
-        ifLabelCount++;
-        
-        tokenizer.advanceTwice(); // if keyword and (
-        compileExpression();
-        writer.writeArithmetic(VMWriter.Command.NOT);
-        tokenizer.advanceTwice(); // ) and {
-
-        writer.writeIf("IF_FALSE" + labelSuffix);
-
-        compileStatements();
-        tokenizer.advance(); // }
+    private void compileIf() {
 
-        boolean elseExists = tokenizer.tokenType() == JackTokenizer.TokenType.KEYWORD
-                && tokenizer.keyword() == JackTokenizer.Keyword.ELSE;
-
-        if (elseExists) {
+        tree.open(SyntaxTree.NodeKind.IF, tokenizer.tokenIndex(), 0);
+        tokenizer.advance(); // if keyword
+        expectSymbol('(');
+        compileExpression();
+        expectSymbol(')');
 
-            tokenizer.advanceTwice(); // else and {
-            writer.writeGoto("END_IF" + labelSuffix);
-        }
-        writer.writeLabel("IF_FALSE" + labelSuffix);
+        compileBlock();
 
-        if (elseExists) {
+        if (isKeyword(JackTokenizer.Keyword.ELSE)) {
 
-            compileStatements();
-            tokenizer.advance(); // }
-            writer.writeLabel("END_IF" + labelSuffix);
+            tokenizer.advance(); // else
+            compileBlock();
         }
+        tree.close();
     }
 
 
     /**
      * Compiles a return statement.
      */
-    private void compileReturn() throws IOException {
+    private void compileReturn() {
+
+        tree.open(SyntaxTree.NodeKind.RETURN, tokenizer.tokenIndex(), 0);
         tokenizer.advance(); // return keyword
 
-        if (tokenizer.tokenType() != JackTokenizer.TokenType.SYMBOL || tokenizer.symbol() != ';') {
+        if (!isSymbol(';')) {
             
             compileExpression();
         }
-        else {
-            writer.writePush(VMWriter.Segment.CONST, 0);
-        }
-        writer.writeReturn();
-        tokenizer.advance(); // ;
+        tree.close();
+        expectSymbol(';');
     }
 
 
     /**
      * Compiles an expression.
      */
-    private void compileExpression() throws IOException {
+    private void compileExpression() {
 
+        tree.open(SyntaxTree.NodeKind.EXPRESSION, tokenizer.tokenIndex(), 0);
         compileTerm();
 
         while (tokenizer.tokenType() == JackTokenizer.TokenType.SYMBOL
-                && String.valueOf(tokenizer.symbol()).matches("[+\\-*/&|<>=]")) {
+                && operatorClass(tokenizer.symbol()) == BINARY_OPERATOR) {
 
-            char operator = tokenizer.symbol();
+            tree.open(SyntaxTree.NodeKind.BINARY, tokenizer.tokenIndex(), tokenizer.symbol());
             tokenizer.advance();
 
             compileTerm();
-
-            if (operator == '*') {
-                writer.writeCall("Math.multiply", 2);
-            } else if (operator == '/') {
-                writer.writeCall("Math.divide", 2);
-            } else {
-                writer.writeArithmetic(binaryOps.get(operator));
-            }
+            tree.close();
         }
+        tree.close();
     }
     
     
     /**
      * Compiles a string constant.
      */
-    private void compileStringConst() throws IOException {
-        String value = tokenizer.stringVal();
+    private void compileStringConst() {
+        tree.stringLeaf(tokenizer.tokenIndex(), tokenizer.stringView());
         tokenizer.advance();
-    
-        writer.writePush(VMWriter.Segment.CONST, value.length());
-        writer.writeCall("String.new", 1);
-    
-        for (int i = 0; i < value.length(); i++) {
-            writer.writePush(VMWriter.Segment.CONST, (int) value.charAt(i));
-            writer.writeCall("String.appendChar", 2);
-        }
     }
     
     
     /**
      * Compiles a keyword constant.
      */
-    private void compileKeywordConst() throws IOException {
-        JackTokenizer.Keyword keyword = tokenizer.keyword();
-        tokenizer.advance();
-    
-        if (keyword == JackTokenizer.Keyword.TRUE) {
-            writer.writePush(VMWriter.Segment.CONST, 0);
-            writer.writeArithmetic(VMWriter.Command.NOT);
-        }
-        else if (keyword == JackTokenizer.Keyword.THIS) {
-            writer.writePush(VMWriter.Segment.POINTER, 0);
-        }
-        else {
-            writer.writePush(VMWriter.Segment.CONST, 0);
+    private void compileKeywordConst() {
+        if (!keywordConstants.contains(tokenizer.keyword())) {
+            throw syntaxError("a term");
         }
+        tree.leaf(SyntaxTree.NodeKind.KEYWORD_CONST, tokenizer.tokenIndex(), tokenizer.keyword().ordinal());
+        tokenizer.advance();
     }
     
     
     /**
      * A helper method for compiling symbol terms.
      */
-    private void symbolTermHelper() throws IOException {
+    private void symbolTermHelper() {
         if (tokenizer.symbol() == '(') {
             tokenizer.advance(); // (
             compileExpression();
-            tokenizer.advance(); // )
-        
-        } else if (tokenizer.symbol() == '-') {
-            tokenizer.advance();
-            compileTerm();
-            writer.writeArithmetic(VMWriter.Command.NEG);
+            expectSymbol(')');
         
-        } else if (tokenizer.symbol() == '~') {
+        } else if (tokenizer.symbol() == '-' || tokenizer.symbol() == '~') {
+            tree.open(SyntaxTree.NodeKind.UNARY, tokenizer.tokenIndex(), tokenizer.symbol());
             tokenizer.advance();
             compileTerm();
-            writer.writeArithmetic(VMWriter.Command.NOT);
+            tree.close();
+
+        } else {
+            throw syntaxError("a term");
         }
     }
     
@@ -552,31 +769,27 @@ class CompilationEngine {
     /**
      * A helper method for compiling identifier terms.
      */
-    private void identifierTermHelper() throws IOException {
-        String name = tokenizer.identifier();
+    private void identifierTermHelper() {
+        int token = tokenizer.tokenIndex();
+        int name = tokenizer.identifierId();
         tokenizer.advance();
     
         if (tokenizer.tokenType() == JackTokenizer.TokenType.SYMBOL
-                && String.valueOf(tokenizer.symbol()).matches("[\\[(.]")) {
+                && operatorClass(tokenizer.symbol()) == SELECTOR) {
             if (tokenizer.symbol() == '[') {
-            
-                writer.writePush(symbolTable.kindOf(name).toSegment(), symbolTable.indexOf(name));
-            
+
+                tree.open(SyntaxTree.NodeKind.ARRAY_ELEMENT, token, name);
                 tokenizer.advance(); // [
                 compileExpression();
-                tokenizer.advance(); // ]
-            
-                writer.writeArithmetic(VMWriter.Command.ADD);
-                writer.writePop(VMWriter.Segment.POINTER, 1);
-                writer.writePush(VMWriter.Segment.THAT, 0);
+                expectSymbol(']');
+                tree.close();
             
-            } else if (tokenizer.symbol() == '(' || tokenizer.symbol() == '.') {
-                compileSubroutineCall(name);
-                tokenizer.advance(); // )
+            } else {
+                compileSubroutineCall(name, token); // ( or .
             }
         }
         else {
-            writer.writePush(symbolTable.kindOf(name).toSegment(), symbolTable.indexOf(name));
+            tree.leaf(SyntaxTree.NodeKind.VARIABLE, token, name);
         }
     }
     
@@ -584,11 +797,14 @@ class CompilationEngine {
     /**
      * Compiles a term.
      */
-    private void compileTerm() throws IOException {
+    private void compileTerm() {
 
+        if (tokenizer.tokenType() == null) {
+            throw syntaxError("a term");
+        }
         switch (tokenizer.tokenType()) {
             case INT_CONST:
-                writer.writePush(VMWriter.Segment.CONST, tokenizer.intVal());
+                tree.leaf(SyntaxTree.NodeKind.INT_CONST, tokenizer.tokenIndex(), tokenizer.intVal());
                 tokenizer.advance();
                 break;
 
@@ -607,6 +823,9 @@ class CompilationEngine {
             case SYMBOL:
                 symbolTermHelper();
                 break;
+
+            default:
+                throw syntaxError("a term");
         }
     }
     
@@ -614,17 +833,28 @@ class CompilationEngine {
     /**
      * Compiles a (possibly empty) comma-separated list of expressions.
      */
-    private int compileExpressionList() throws IOException {
-
-        int nArgs = 1;
+    private void compileExpressionList() {
 
         compileExpression();
 
-        while (tokenizer.symbol() == ',') {
+        while (isSymbol(',')) {
             tokenizer.advance(); //,
             compileExpression();
-            nArgs++;
         }
-        return nArgs;
+    }
+
+
+    /**
+     * Unwinds the parsing of a construct in which a syntax error was found (and recorded), up to the
+     *  innermost synchronization point: the statement or class member being parsed.
+     * Thrown for control flow only, so it carries no stack trace.
+     */
+    private static class SyntaxError extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        SyntaxError() {
+            super(null, null, false, false);
+        }
     }
 }
@@ -0,0 +1,616 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * The control flow graph of the VM code of a subroutine: its basic blocks, the edges between them,
+ *  and the dominators of every block.
+ * A basic block is a run of VM commands which is only entered at its start (at its label, if it has one),
+ *  and only left at its end: by a goto, an if-goto or a return, or by falling through to the next block.
+ * Every block is an int: the position of its entries in parallel arrays (like the nodes of a SyntaxTree),
+ *  numbered in creation order. The blocks are laid out (and their code is written) in the order they are started.
+ * The commands (ops) are encoded in ints, OP_WORDS ints per op: the opcode, with a small field above it
+ *  (see Opcode), and two operands. The ops of a block are contiguous, since ops are only added to the last
+ *  started block.
+ *
+ * The graph is built by a code generator, through write methods which mirror those of a VMWriter,
+ *  but with jumps to blocks rather than to labels. finish() then computes the edges and the dominators,
+ *  and writeTo() writes the code of the graph, as the generator would have written it into a VMWriter directly.
+ */
+class ControlFlowGraph {
+
+
+    // Stands for a missing block (no successor / no dominator)
+    static final int NONE = -1;
+
+    // The number of ints encoding an op, and the number of low bits of the first of them holding the opcode
+    private static final int OP_WORDS = 3;
+    private static final int OPCODE_BITS = 4;
+    private static final int OPCODE_MASK = (1 << OPCODE_BITS) - 1;
+
+    // The initial number of ops and blocks the graph can hold (grown as they are added)
+    private static final int INITIAL_OP_CAPACITY = 256;
+    private static final int INITIAL_BLOCK_CAPACITY = 16;
+
+    // The opcodes, segments and arithmetic commands, indexed by their ordinals
+    private static final Opcode[] opcodes = Opcode.values();
+    private static final VMWriter.Segment[] segments = VMWriter.Segment.values();
+    private static final VMWriter.Command[] commands = VMWriter.Command.values();
+
+
+    /**
+     * Represents a VM command. The field and the operands of every kind of op are given below
+     *  (names are given by their ids in the identifier pool).
+     */
+    enum Opcode {
+        PUSH,           // field: the segment; operand: the index
+        POP,            // field: the segment; operand: the index
+        ARITHMETIC,     // field: the command
+        GOTO,           // operand: the target block
+        IF_GOTO,        // operand: the target block
+        CALL,           // field: the number of arguments; operands: the class and the subroutine names
+                        //  (or NONE, and the position of the qualified name in the called names, see writeCall())
+        FUNCTION,       // field: the number of local variables; operands: the class and the subroutine names
+        RETURN
+    }
+
+
+
+    //*** Data Members ***//
+
+    // The ops of all the blocks, in layout order (OP_WORDS ints per op)
+    private int[] ops;
+
+    // The number of ops in the graph
+    private int opCount;
+
+    // The label (null if it has none), the first op and the end (one past the last op) of every block, indexed by block
+    private String[] labels;
+    private int[] opStarts;
+    private int[] opEnds;
+
+    // The jump target of every block (NONE if it doesn't end with a jump), and its fall-through successor
+    // (NONE if it ends with a goto or a return, or is the last block), indexed by block
+    private int[] jumpTargets;
+    private int[] fallThroughs;
+
+    // The immediate dominator of every block (NONE for the entry block and for unreachable blocks), indexed by block
+    private int[] immediateDominators;
+
+    // The number of blocks in the graph
+    private int blockCount;
+
+    // The blocks which are started, in layout order
+    private int[] layout;
+
+    // The number of started blocks
+    private int layoutSize;
+
+    // The block ops are added to (NONE after a jump or a return, until another block is started)
+    private int current;
+
+    // The qualified names of the subroutines called by name (kept for the following subroutines)
+    private List<String> calledNames;
+
+
+    /**
+     * Creates a new empty graph (see clear()).
+     */
+    ControlFlowGraph() {
+        ops = new int[INITIAL_OP_CAPACITY * OP_WORDS];
+        labels = new String[INITIAL_BLOCK_CAPACITY];
+        opStarts = new int[INITIAL_BLOCK_CAPACITY];
+        opEnds = new int[INITIAL_BLOCK_CAPACITY];
+        jumpTargets = new int[INITIAL_BLOCK_CAPACITY];
+        fallThroughs = new int[INITIAL_BLOCK_CAPACITY];
+        immediateDominators = new int[INITIAL_BLOCK_CAPACITY];
+        layout = new int[INITIAL_BLOCK_CAPACITY];
+        calledNames = new ArrayList<>();
+        clear();
+    }
+
+
+    /**
+     * Removes all the blocks of the graph (keeping the arrays for reuse), and starts the entry block (block 0),
+     *  which has no label.
+     */
+    void clear() {
+        opCount = 0;
+        blockCount = 0;
+        layoutSize = 0;
+        startBlock(newBlock(null));
+    }
+
+
+    /**
+     * Creates a new block, which is to be started later (every block must be started before finish()).
+     *
+     * @param label the label of the block (null if it is only entered by falling through).
+     * @return the new block.
+     */
+    int newBlock(String label) {
+
+        if (blockCount == labels.length) {
+            int capacity = blockCount * 2;
+            labels = Arrays.copyOf(labels, capacity);
+            opStarts = Arrays.copyOf(opStarts, capacity);
+            opEnds = Arrays.copyOf(opEnds, capacity);
+            jumpTargets = Arrays.copyOf(jumpTargets, capacity);
+            fallThroughs = Arrays.copyOf(fallThroughs, capacity);
+            immediateDominators = Arrays.copyOf(immediateDominators, capacity);
+            layout = Arrays.copyOf(layout, capacity);
+        }
+
+        int block = blockCount;
+        labels[block] = label;
+        opStarts[block] = 0;
+        opEnds[block] = 0;
+        jumpTargets[block] = NONE;
+        fallThroughs[block] = NONE;
+        immediateDominators[block] = NONE;
+        blockCount++;
+        return block;
+    }
+
+
+    /**
+     * Starts a block: lays it out after the last started block, and adds the following ops to it.
+     *
+     * @param block a block which isn't started yet.
+     */
+    void startBlock(int block) {
+        opStarts[block] = opCount;
+        opEnds[block] = opCount;
+        layout[layoutSize] = block;
+        layoutSize++;
+        current = block;
+    }
+
+
+    /**
+     * Adds an op to the current block (to a new unlabeled block, if the current block has ended).
+     */
+    private void add(Opcode opcode, int field, int operand, int secondOperand) {
+
+        if (current == NONE) {
+            startBlock(newBlock(null)); // unreachable code, following a goto or a return
+        }
+        if ((opCount + 1) * OP_WORDS > ops.length) {
+            ops = Arrays.copyOf(ops, ops.length * 2);
+        }
+
+        int index = opCount * OP_WORDS;
+        ops[index] = opcode.ordinal() | field << OPCODE_BITS;
+        ops[index + 1] = operand;
+        ops[index + 2] = secondOperand;
+        opCount++;
+        opEnds[current] = opCount;
+    }
+
+
+    /**
+     * Adds a VM push command.
+     *
+     * @param segment the segment to push from.
+     * @param index the index of the data to push.
+     */
+    void writePush(VMWriter.Segment segment, int index) {
+        add(Opcode.PUSH, segment.ordinal(), index, 0);
+    }
+
+
+    /**
+     * Adds a VM pop command.
+     *
+     * @param segment the segment to pop into.
+     * @param index the index (in the segment) to pop into.
+     */
+    void writePop(VMWriter.Segment segment, int index) {
+        add(Opcode.POP, segment.ordinal(), index, 0);
+    }
+
+
+    /**
+     * Adds a VM arithmetic command.
+     *
+     * @param command the arithmetic command.
+     */
+    void writeArithmetic(VMWriter.Command command) {
+        add(Opcode.ARITHMETIC, command.ordinal(), 0, 0);
+    }
+
+
+    /**
+     * Adds a VM goto command, which ends the current block.
+     *
+     * @param target the block jumped to.
+     */
+    void writeGoto(int target) {
+        add(Opcode.GOTO, 0, target, 0);
+        jumpTargets[current] = target;
+        current = NONE;
+    }
+
+
+    /**
+     * Adds a VM if-goto command, which ends the current block (the following ops are in the block it falls through to).
+     *
+     * @param target the block jumped to.
+     */
+    void writeIf(int target) {
+        add(Opcode.IF_GOTO, 0, target, 0);
+        jumpTargets[current] = target;
+        current = NONE;
+    }
+
+
+    /**
+     * Adds a VM call command of a subroutine given by its qualified name (a subroutine of the OS, for example).
+     *
+     * @param name the qualified name of the called function.
+     * @param nArgs the number of arguments received by the called function.
+     */
+    void writeCall(String name, int nArgs) {
+
+        int position = calledNames.indexOf(name);
+        if (position < 0) {
+            position = calledNames.size();
+            calledNames.add(name);
+        }
+        add(Opcode.CALL, nArgs, NONE, position);
+    }
+
+
+    /**
+     * Adds a VM call command of a subroutine given by identifier ids.
+     *
+     * @param classId the id of the name of the class of the called function.
+     * @param subroutineId the id of the name of the called function.
+     * @param nArgs the number of arguments received by the called function.
+     */
+    void writeCall(int classId, int subroutineId, int nArgs) {
+        add(Opcode.CALL, nArgs, classId, subroutineId);
+    }
+
+
+    /**
+     * Adds a VM function command.
+     *
+     * @param classId the id of the name of the class of the function.
+     * @param subroutineId the id of the name of the function.
+     * @param nLocals the number of local variables declared in the function.
+     */
+    void writeFunction(int classId, int subroutineId, int nLocals) {
+        add(Opcode.FUNCTION, nLocals, classId, subroutineId);
+    }
+
+
+    /**
+     * Adds a VM return command, which ends the current block.
+     */
+    void writeReturn() {
+        add(Opcode.RETURN, 0, 0, 0);
+        current = NONE;
+    }
+
+
+    /**
+     * Completes the graph once all of its ops are added: computes the fall-through edges and the dominators.
+     */
+    void finish() {
+
+        for (int position = 0; position < layoutSize; position++) {
+            int block = layout[position];
+            int next = position + 1 < layoutSize ? layout[position + 1] : NONE;
+            if (opEnds[block] > opStarts[block]) {
+                Opcode last = opcode(opEnds[block] - 1);
+                if (last == Opcode.GOTO || last == Opcode.RETURN) {
+                    next = NONE;
+                }
+            }
+            fallThroughs[block] = next;
+        }
+        computeDominators();
+    }
+
+
+    /**
+     * Computes the immediate dominator of every block, by the iterative algorithm of Cooper, Harvey and Kennedy:
+     *  the blocks are visited in reverse postorder until no dominator changes, and the dominator of a block
+     *  is the nearest common dominator of its processed predecessors.
+     */
+    private void computeDominators() {
+
+        // number the blocks reachable from the entry block in postorder, by a depth-first search
+        int[] postorder = new int[blockCount];
+        Arrays.fill(postorder, NONE);
+        int[] reversePostorder = new int[blockCount];
+        int[] stack = new int[blockCount];
+        int[] visitedSuccessors = new int[blockCount];
+        boolean[] visited = new boolean[blockCount];
+        int reachable = 0;
+        int depth = 0;
+
+        stack[depth++] = 0;
+        visited[0] = true;
+        while (depth > 0) {
+            int block = stack[depth - 1];
+            int successor = visitedSuccessors[block] == 0 ? fallThroughs[block]
+                            : visitedSuccessors[block] == 1 ? jumpTargets[block] : NONE;
+            if (visitedSuccessors[block] < 2) {
+                visitedSuccessors[block]++;
+                if (successor != NONE && !visited[successor]) {
+                    visited[successor] = true;
+                    stack[depth++] = successor;
+                }
+                continue;
+            }
+            depth--;
+            postorder[block] = reachable;
+            reversePostorder[blockCount - 1 - reachable] = block;
+            reachable++;
+        }
+        int firstInOrder = blockCount - reachable;
+
+        // the predecessors of the reachable blocks, as lists of consecutive entries
+        int[] predecessorStarts = new int[blockCount + 1];
+        for (int block = 0; block < blockCount; block++) {
+            if (postorder[block] != NONE) {
+                if (fallThroughs[block] != NONE) {
+                    predecessorStarts[fallThroughs[block] + 1]++;
+                }
+                if (jumpTargets[block] != NONE) {
+                    predecessorStarts[jumpTargets[block] + 1]++;
+                }
+            }
+        }
+        for (int block = 0; block < blockCount; block++) {
+            predecessorStarts[block + 1] += predecessorStarts[block];
+        }
+        int[] predecessors = new int[predecessorStarts[blockCount]];
+        int[] filled = Arrays.copyOf(predecessorStarts, blockCount);
+        for (int block = 0; block < blockCount; block++) {
+            if (postorder[block] != NONE) {
+                if (fallThroughs[block] != NONE) {
+                    predecessors[filled[fallThroughs[block]]++] = block;
+                }
+                if (jumpTargets[block] != NONE) {
+                    predecessors[filled[jumpTargets[block]]++] = block;
+                }
+            }
+        }
+
+        // the entry block dominates itself while computing (and has no immediate dominator afterwards)
+        Arrays.fill(immediateDominators, 0, blockCount, NONE);
+        immediateDominators[0] = 0;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = firstInOrder; i < blockCount; i++) {
+                int block = reversePostorder[i];
+                if (block == 0) {
+                    continue;
+                }
+                int dominator = NONE;
+                for (int p = predecessorStarts[block]; p < predecessorStarts[block + 1]; p++) {
+                    int predecessor = predecessors[p];
+                    if (immediateDominators[predecessor] == NONE) {
+                        continue; // not processed yet
+                    }
+                    dominator = dominator == NONE ? predecessor
+                                : commonDominator(predecessor, dominator, postorder);
+                }
+                if (immediateDominators[block] != dominator) {
+                    immediateDominators[block] = dominator;
+                    changed = true;
+                }
+            }
+        }
+        immediateDominators[0] = NONE;
+    }
+
+
+    /**
+     * @return the nearest block dominating both given (processed) blocks.
+     */
+    private int commonDominator(int first, int second, int[] postorder) {
+        while (first != second) {
+            while (postorder[first] < postorder[second]) {
+                first = immediateDominators[first];
+            }
+            while (postorder[second] < postorder[first]) {
+                second = immediateDominators[second];
+            }
+        }
+        return first;
+    }
+
+
+    /**
+     * Writes the code of the graph: the blocks in layout order, each preceded by its label (if it has one).
+     *
+     * @param writer the writer of the output VM code.
+     */
+    void writeTo(VMWriter writer) {
+
+        for (int position = 0; position < layoutSize; position++) {
+            int block = layout[position];
+            if (labels[block] != null) {
+                writer.writeLabel(labels[block]);
+            }
+            for (int op = opStarts[block]; op < opEnds[block]; op++) {
+                writeOp(writer, op);
+            }
+        }
+    }
+
+
+    /**
+     * Writes a single op.
+     */
+    private void writeOp(VMWriter writer, int op) {
+
+        int field = field(op);
+        int operand = operand(op);
+        int secondOperand = secondOperand(op);
+
+        switch (opcode(op)) {
+            case PUSH:
+                writer.writePush(segments[field], operand);
+                break;
+            case POP:
+                writer.writePop(segments[field], operand);
+                break;
+            case ARITHMETIC:
+                writer.writeArithmetic(commands[field]);
+                break;
+            case GOTO:
+                writer.writeGoto(labels[operand]);
+                break;
+            case IF_GOTO:
+                writer.writeIf(labels[operand]);
+                break;
+            case CALL:
+                if (operand == NONE) {
+                    writer.writeCall(calledNames.get(secondOperand), field);
+                }
+                else {
+                    writer.writeCall(operand, secondOperand, field);
+                }
+                break;
+            case FUNCTION:
+                writer.writeFunction(operand, secondOperand, field);
+                break;
+            case RETURN:
+                writer.writeReturn();
+                break;
+        }
+    }
+
+
+    /**
+     * @return the number of blocks in the graph.
+     */
+    int blockCount() {
+        return blockCount;
+    }
+
+
+    /**
+     * @param position a position in the layout of the blocks (from 0 to blockCount() - 1).
+     * @return the block laid out at the position.
+     */
+    int blockAt(int position) {
+        return layout[position];
+    }
+
+
+    /**
+     * @param block a block of the graph.
+     * @return the label of the block (null if it has none).
+     */
+    String label(int block) {
+        return labels[block];
+    }
+
+
+    /**
+     * @param block a block of the graph.
+     * @return the first op of the block.
+     */
+    int firstOp(int block) {
+        return opStarts[block];
+    }
+
+
+    /**
+     * @param block a block of the graph.
+     * @return the end of the ops of the block (one past its last op).
+     */
+    int endOp(int block) {
+        return opEnds[block];
+    }
+
+
+    /**
+     * @param op an op of the graph.
+     * @return the opcode of the op.
+     */
+    Opcode opcode(int op) {
+        return opcodes[ops[op * OP_WORDS] & OPCODE_MASK];
+    }
+
+
+    /**
+     * @param op an op of the graph.
+     * @return the field of the op (see Opcode).
+     */
+    int field(int op) {
+        return ops[op * OP_WORDS] >>> OPCODE_BITS;
+    }
+
+
+    /**
+     * @param op an op of the graph.
+     * @return the first operand of the op (see Opcode).
+     */
+    int operand(int op) {
+        return ops[op * OP_WORDS + 1];
+    }
+
+
+    /**
+     * @param op an op of the graph.
+     * @return the second operand of the op (see Opcode).
+     */
+    int secondOperand(int op) {
+        return ops[op * OP_WORDS + 2];
+    }
+
+
+    /**
+     * Called after finish().
+     * @param block a block of the graph.
+     * @return the block which the block falls through to (NONE if it ends with a goto or a return, or is the last).
+     */
+    int fallThrough(int block) {
+        return fallThroughs[block];
+    }
+
+
+    /**
+     * @param block a block of the graph.
+     * @return the block which the block jumps to (NONE if it doesn't end with a goto or an if-goto).
+     */
+    int jumpTarget(int block) {
+        return jumpTargets[block];
+    }
+
+
+    /**
+     * Called after finish().
+     * @param block a block of the graph.
+     * @return the immediate dominator of the block (NONE for the entry block, and for an unreachable block).
+     */
+    int immediateDominator(int block) {
+        return immediateDominators[block];
+    }
+
+
+    /**
+     * Called after finish().
+     * @param dominator a block of the graph.
+     * @param block a block of the graph.
+     * @return whether every path from the entry block to the block passes through the dominator
+     *  (every block dominates itself).
+     */
+    boolean dominates(int dominator, int block) {
+        for (; block != NONE; block = immediateDominators[block]) {
+            if (block == dominator) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,184 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+
+/**
+ * Interns the identifiers of a compilation into dense int ids (0, 1, 2, ...),
+ *  so that the other modules can key on ids instead of hashing and comparing Strings.
+ * Identifiers are interned straight from the scanned bytes, and the String of every identifier
+ *  is created at most once, on first request.
+ * A pool may be shared by all the files of a compilation, but not by concurrent compilations.
+ * Once no identifiers are being interned, the names of the pool may be read concurrently.
+ */
+class IdentifierPool {
+
+
+    // The initial number of slots in the hash table (must be a power of 2)
+    private static final int INITIAL_CAPACITY = 1024;
+
+
+    //*** Data Members ***//
+
+    // Open addressing hash table of identifier ids (every slot holds an id + 1, or 0 if it is empty)
+    private int[] slots;
+
+    // The hash code, the text and the String (once created) of every interned identifier, indexed by id
+    private int[] hashes;
+    private byte[][] texts;
+    private String[] names;
+
+    // The number of interned identifiers
+    private int size;
+
+
+    /**
+     * Creates a new empty identifier pool.
+     */
+    IdentifierPool() {
+        slots = new int[INITIAL_CAPACITY];
+        hashes = new int[INITIAL_CAPACITY / 2];
+        texts = new byte[INITIAL_CAPACITY / 2][];
+        names = new String[INITIAL_CAPACITY / 2];
+        size = 0;
+    }
+
+
+    /**
+     * Computes the hash code of a range of bytes.
+     */
+    private static int hash(ByteBuffer input, int start, int end) {
+
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + input.get(i);
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+
+    /**
+     * Checks whether the text of an interned identifier equals a range of bytes.
+     */
+    private static boolean matches(byte[] text, ByteBuffer input, int start, int end) {
+
+        if (text.length != end - start) {
+            return false;
+        }
+        for (int i = 0; i < text.length; i++) {
+            if (text[i] != input.get(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Returns the id of the identifier spelled by a range of bytes, interning it if it is new.
+     *
+     * @param input the buffer holding the identifier.
+     * @param start the offset of the first character of the identifier.
+     * @param end the offset following the last character of the identifier.
+     * @return the id of the identifier.
+     */
+    int intern(ByteBuffer input, int start, int end) {
+
+        int hash = hash(input, start, end);
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+
+        while (slots[slot] != 0) {
+            int id = slots[slot] - 1;
+            if (hashes[id] == hash && matches(texts[id], input, start, end)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        byte[] text = new byte[end - start];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = input.get(start + i);
+        }
+        return add(text, hash, slot);
+    }
+
+
+    /**
+     * Returns the id of the given identifier, interning it if it is new.
+     *
+     * @param name the identifier.
+     * @return the id of the identifier.
+     */
+    int intern(String name) {
+        byte[] text = name.getBytes(StandardCharsets.US_ASCII);
+        return intern(ByteBuffer.wrap(text), 0, text.length);
+    }
+
+
+    /**
+     * Adds a new identifier to the pool.
+     *
+     * @param text the text of the identifier.
+     * @param hash the hash code of the identifier.
+     * @param slot the empty hash table slot for the identifier.
+     * @return the id of the new identifier.
+     */
+    private int add(byte[] text, int hash, int slot) {
+
+        int id = size;
+        size++;
+
+        if (id == hashes.length) {
+            hashes = Arrays.copyOf(hashes, id * 2);
+            texts = Arrays.copyOf(texts, id * 2);
+            names = Arrays.copyOf(names, id * 2);
+        }
+        hashes[id] = hash;
+        texts[id] = text;
+        slots[slot] = id + 1;
+
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+
+    /**
+     * Doubles the number of slots in the hash table, and re-inserts all the interned identifiers.
+     */
+    private void rehash() {
+
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+    }
+
+
+    /**
+     * @param id the id of an interned identifier.
+     * @return the identifier with the given id.
+     */
+    String name(int id) {
+        if (names[id] == null) {
+            names[id] = new String(texts[id], StandardCharsets.ISO_8859_1);
+        }
+        return names[id];
+    }
+
+
+    /**
+     * @return the number of interned identifiers (all ids are smaller than it).
+     */
+    int size() {
+        return size;
+    }
+}
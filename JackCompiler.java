@@ -1,5 +1,12 @@
 import java.io.File;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 
 /**
@@ -9,24 +16,84 @@ import java.io.IOException;
  *  or a directory name containing one or more such files.
  * For each source xxx.jack file, the compiler creates an output file named xxx.vm,
  *  into which it writes the translation of the given Jack class to Hack VM code.
+ * Files with lexical or syntax errors aren't translated (no .vm file is written for them):
+ *  all of their errors are reported instead, and the compilation goes on with the other files.
+ * The exit status is 1 if any file has errors, or in case of an invalid argument or an I/O problem (0 otherwise).
+ *
+ * Usage: JackCompiler [options] source
+ * Options:
+ *  -cache directory    keep the lexed token streams of the input files in the given cache directory,
+ *                      and reuse them for unchanged files.
+ *  -cacheSize size     the size cap of the token cache, in megabytes.
+ *  -stream             stream the input files through a fixed-size window instead of reading them whole,
+ *                      so that the memory taken by the input stays the same whatever its size.
+ *  -streamWindow size  the size of the streaming window, in kilobytes.
+ *  -byteScan           scan the input byte by byte, instead of scanning runs of blanks, identifier characters
+ *                      and comment bodies a word (8 bytes) at a time.
+ *  -stats              print the lexing statistics (tokens by type, bytes, lines, comment bytes and lexing time)
+ *                      and the compilation time of every translated file, and their totals for the run.
+ *  -parallelCodegen    generate the code of the subroutines of every class in parallel (on multi-core hosts).
+ *  -check              only check the syntax of the input files: report their lexical and syntax errors,
+ *                      without generating any code or writing any file. The files are checked in parallel
+ *                      (unless a token cache is used).
  */
 public class JackCompiler {
     
     
-    // The index of source file name in command line arguments array
-    private static final int ARGUMENT_INDEX = 0;
+    // Command line options (see class description)
+    private static final String CACHE_OPTION = "-cache";
+    private static final String CACHE_SIZE_OPTION = "-cacheSize";
+    private static final String STREAM_OPTION = "-stream";
+    private static final String STREAM_WINDOW_OPTION = "-streamWindow";
+    private static final String BYTE_SCAN_OPTION = "-byteScan";
+    private static final String STATS_OPTION = "-stats";
+    private static final String PARALLEL_CODEGEN_OPTION = "-parallelCodegen";
+    private static final String CHECK_OPTION = "-check";
+
+    // The default size cap of the token cache, in megabytes
+    private static final long DEFAULT_CACHE_SIZE = 256;
+
+    // The default size of the streaming window, in kilobytes
+    private static final int DEFAULT_STREAM_WINDOW = 64;
     
     // The extension (type) of the output VM code file
     private static final String OUTPUT_FILE_EXTENSION = ".vm";
     
     // The extension (type) of an input Jack code file
     private static final String INPUT_FILES_EXTENSION = ".jack";
+
+    // Input files of at least this size (in bytes) are lexed up front, in parallel chunks (on multi-core hosts)
+    private static final long PARALLEL_LEXING_THRESHOLD = 8 << 20;
     
     
     //*** Data Members ***//
     
     // The file/directory of the jack program to translate
     private File sourceToCompile;
+
+    // Interns the identifiers of all the compiled files
+    private IdentifierPool identifiers;
+
+    // The cache of the lexed token streams of the input files (null if there's no cache)
+    private TokenCache tokenCache;
+
+    // The size (in bytes) of the window the input files are streamed through (0 if they are read whole)
+    private int streamWindow;
+
+    // The pool of the workers generating the code of the subroutines of a class (null if it is generated sequentially)
+    private ForkJoinPool codegenPool;
+
+    // The lexing statistics of all the translated files (null unless statistics are recorded),
+    // and the number of these files and the time spent compiling them (in nanoseconds)
+    private LexerStatistics runStatistics;
+    private int translatedFiles;
+    private long runTime;
+
+    // Whether the syntax of the input files is only checked, without translating them
+    private boolean checkOnly;
+
+    // The number of the input files found to have errors (which aren't translated)
+    private int erroneousFiles;
     
     
     /**
@@ -35,6 +102,7 @@ public class JackCompiler {
      */
     private JackCompiler(File source) {
         sourceToCompile = source;
+        identifiers = new IdentifierPool();
     }
 
     
@@ -80,26 +148,275 @@ public class JackCompiler {
     /**
      * Executes the translation process of a single .jack file to VM code output,
      * as described above (see class description).
+     * A file with lexical or syntax errors isn't translated: all of its errors are reported instead
+     *  (and it's counted, for the exit status).
      *
      * @param currentFile the jack code file to compile.
      * @throws IOException in case of a problem handling the input file.
      */
     private void compile(File currentFile) throws IOException {
-        
-        JackTokenizer tokenizer = new JackTokenizer(currentFile);
+
+        try {
+            compileFile(currentFile);
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause(); // a problem reading a streamed input file
+        }
+    }
+
+
+    /**
+     * Executes the translation process of a single .jack file (see compile(File)).
+     *
+     * @param currentFile the jack code file to compile.
+     * @throws IOException in case of a problem handling the input file.
+     */
+    private void compileFile(File currentFile) throws IOException {
+
+        long begin = System.nanoTime();
+        JackTokenizer tokenizer;
+        if (streamWindow > 0) {
+            tokenizer = new JackTokenizer(currentFile, streamWindow, identifiers);
+        }
+        else {
+            tokenizer = new JackTokenizer(currentFile, identifiers);
+            if (tokenCache != null) {
+                tokenizer.bufferTokens(tokenCache);
+            }
+            else if (currentFile.length() >= PARALLEL_LEXING_THRESHOLD
+                     && ForkJoinPool.getCommonPoolParallelism() > 1) {
+                tokenizer.bufferTokens(ForkJoinPool.commonPool());
+            }
+        }
+
+        // the class is parsed into a syntax tree first, and its code is generated from the tree;
+        // the parsing lexes the whole input, and the lexical errors met on the way are checked before any code is generated
+        CompilationEngine parser = new CompilationEngine(tokenizer, identifiers);
+        SyntaxTree tree = parser.compileClass();
+        List<String> errors = tokenizer.lexicalErrors();
+        tokenizer.close();
+
+        if (!errors.isEmpty()) {
+            System.err.println(errorReport(currentFile, errors, "lexical") + ", and isn't translated");
+            erroneousFiles++;
+            return;
+        }
+
+        errors = parser.syntaxErrors();
+        if (!errors.isEmpty()) {
+            System.err.println(errorReport(currentFile, errors, "syntax") + ", and isn't translated");
+            erroneousFiles++;
+            return;
+        }
     
         String sourcePath = currentFile.getAbsolutePath();
         String outputName = sourcePath.substring(0, sourcePath.lastIndexOf("."));
 
-        VMWriter writer = new VMWriter(createOutputFile(outputName));
-        SymbolTable table = new SymbolTable();
-        
-        CompilationEngine engine = new CompilationEngine(tokenizer, writer, table);
+        VMWriter writer = new VMWriter(createOutputFile(outputName), identifiers);
+        generate(tree, writer, identifiers, codegenPool);
+        writer.close();
+
+        if (runStatistics != null) {
+            long time = System.nanoTime() - begin;
+            LexerStatistics statistics = tokenizer.statistics();
+            reportStatistics(currentFile.getName(), statistics, time);
+            runStatistics.add(statistics);
+            translatedFiles++;
+            runTime += time;
+        }
+    }
 
-        engine.compileClass();
 
-        writer.close();
+    /**
+     * Describes the errors of a file: a line per error, followed by a summary line (without a line break).
+     *
+     * @param file the jack code file.
+     * @param errors the descriptions of the errors (with their locations).
+     * @param kind the kind of the errors (lexical or syntax).
+     * @return the description of the errors.
+     */
+    private static String errorReport(File file, List<String> errors, String kind) {
+
+        StringBuilder report = new StringBuilder();
+        for (String error : errors) {
+            report.append(file.getName()).append(": ").append(error).append(System.lineSeparator());
+        }
+        return report.append(file.getName()).append(" has ").append(errors.size()).append(' ').append(kind)
+                     .append(" error(s)").toString();
+    }
+
+
+    /**
+     * Checks the syntax of a single .jack file: lexes and parses it, without generating any code.
+     * The file gets an identifier pool of its own, so that several files can be checked concurrently.
+     *
+     * @param file the jack code file to check.
+     * @return the description of the errors of the file (null if it has none).
+     * @throws IOException in case of a problem reading the file.
+     */
+    private String checkFile(File file) throws IOException {
+
+        IdentifierPool fileIdentifiers = new IdentifierPool();
+        JackTokenizer tokenizer;
+        if (streamWindow > 0) {
+            tokenizer = new JackTokenizer(file, streamWindow, fileIdentifiers);
+        }
+        else {
+            tokenizer = new JackTokenizer(file, fileIdentifiers);
+            if (tokenCache != null) {
+                tokenizer.bufferTokens(tokenCache);
+            }
+        }
+
+        // the parsing lexes the whole input, and the lexical errors met on the way are reported before the syntax errors
+        // (which they may cause)
+        CompilationEngine parser = new CompilationEngine(tokenizer, fileIdentifiers);
+        parser.compileClass();
+        List<String> errors = tokenizer.lexicalErrors();
         tokenizer.close();
+
+        String kind = "lexical";
+        if (errors.isEmpty()) {
+            errors = parser.syntaxErrors();
+            kind = "syntax";
+        }
+        return errors.isEmpty() ? null : errorReport(file, errors, kind);
+    }
+
+
+    /**
+     * Checks the syntax of the given .jack files (see checkFile()), and prints their errors, in order.
+     * The files are checked in parallel by the workers of the common pool, unless they are lexed through
+     *  the token cache (which isn't safe for concurrent use).
+     *
+     * @param files the jack code files to check.
+     * @throws IOException in case of a problem reading the files.
+     */
+    private void checkFiles(File[] files) throws IOException {
+
+        List<ForkJoinTask<String>> checks = new ArrayList<>();
+        if (tokenCache == null) {
+            for (File file : files) {
+                checks.add(ForkJoinPool.commonPool().submit(() -> {
+                    try {
+                        return checkFile(file);
+                    }
+                    catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+            }
+        }
+
+        for (int i = 0; i < files.length; i++) {
+            String report;
+            try {
+                report = tokenCache == null ? checks.get(i).join() : checkFile(files[i]);
+            }
+            catch (UncheckedIOException e) {
+                throw e.getCause(); // a problem reading a file checked by a worker
+            }
+            if (report != null) {
+                System.err.println(report);
+                erroneousFiles++;
+            }
+        }
+    }
+
+
+    /**
+     * Prints the lexing statistics and the compilation time of a translated file, or of the whole run.
+     *
+     * @param name the name of the file (or a description of the run).
+     * @param statistics the lexing statistics.
+     * @param time the time spent compiling, in nanoseconds.
+     */
+    private static void reportStatistics(String name, LexerStatistics statistics, long time) {
+        System.out.println(name + ": " + statistics + ", compiled in "
+                           + String.format(Locale.ROOT, "%.2f ms", time / 1e6));
+    }
+
+
+    /**
+     * Generates the VM code of the syntax tree of a jack class, written by the given writer.
+     *
+     * @param tree the syntax tree of the class (without syntax errors).
+     * @param writer the writer of the output VM code.
+     * @param identifiers the pool of the identifiers of the program.
+     * @param pool the pool of the workers generating the code of the subroutines (null to generate sequentially).
+     */
+    private static void generate(SyntaxTree tree, VMWriter writer, IdentifierPool identifiers, ForkJoinPool pool) {
+
+        CodeGenerator generator = new CodeGenerator(tree, writer, new SymbolTable(), identifiers);
+        if (pool != null) {
+            generator.generateClass(pool);
+        }
+        else {
+            generator.generateClass();
+        }
+    }
+
+
+    /**
+     * Translates a single jack class held in memory into VM code, without any disk I/O.
+     *
+     * @param source the jack code of the class to compile.
+     * @param identifiers the pool of the identifiers of the program (may be shared by several calls).
+     * @return the translation of the class into VM code.
+     * @throws IOException in case of a problem handling the input or output.
+     * @throws IllegalArgumentException in case the code has lexical or syntax errors (all of them are described).
+     */
+    static String compile(CharSequence source, IdentifierPool identifiers) throws IOException {
+        return compileInMemory(JackTokenizer.fromSource(source, identifiers), identifiers);
+    }
+
+
+    /**
+     * Translates the single jack class of a tokenizer of code held in memory into VM code.
+     *
+     * @param tokenizer the tokenizer of the jack class to compile.
+     * @param identifiers the pool of the identifiers of the program.
+     * @return the translation of the class into VM code.
+     * @throws IOException in case of a problem handling the input or output.
+     * @throws IllegalArgumentException in case the code has lexical or syntax errors (all of them are described).
+     */
+    private static String compileInMemory(JackTokenizer tokenizer, IdentifierPool identifiers) throws IOException {
+
+        CompilationEngine parser = new CompilationEngine(tokenizer, identifiers);
+        SyntaxTree tree = parser.compileClass();
+
+        List<String> errors = tokenizer.lexicalErrors();
+        if (!errors.isEmpty()) {
+            throw new IllegalArgumentException("The code has " + errors.size() + " lexical error(s):\n"
+                                               + String.join("\n", errors));
+        }
+        errors = parser.syntaxErrors();
+        if (!errors.isEmpty()) {
+            throw new IllegalArgumentException("The code has " + errors.size() + " syntax error(s):\n"
+                                               + String.join("\n", errors));
+        }
+
+        StringWriter output = new StringWriter();
+        VMWriter writer = new VMWriter(output, identifiers);
+
+        generate(tree, writer, identifiers, null);
+
+        writer.close();
+        return output.toString();
+    }
+
+
+    /**
+     * Translates a single jack class held in memory (as UTF-8 bytes) into VM code, without any disk I/O.
+     *
+     * @param source the jack code of the class to compile.
+     * @param identifiers the pool of the identifiers of the program (may be shared by several calls).
+     * @return the translation of the class into VM code.
+     * @throws IOException in case of a problem handling the input or output.
+     * @throws IllegalArgumentException in case the code has lexical or syntax errors (all of them are described).
+     */
+    static String compile(byte[] source, IdentifierPool identifiers) throws IOException {
+        return compileInMemory(JackTokenizer.fromSource(source, identifiers), identifiers);
     }
     
     
@@ -108,46 +425,156 @@ public class JackCompiler {
      * If the input is a single file, outputs a single file residing in the same directory.
      * If the input is a directory, outputs a single .vm file for every .jack file in the directory,
      *  into the same directory.
+     * In syntax check mode, the files are only checked (see checkFiles()), and no file is output.
      *
      * @throws IOException in case of an i/o problem with handling the input or output files.
      */
     private void execute() throws IOException {
-        
+
+        File[] jackFiles = new File[0];
         if (sourceToCompile.isDirectory()) {
             
-            File[] jackFiles = sourceToCompile.listFiles(pathname -> pathname.isFile()
+            File[] listedFiles = sourceToCompile.listFiles(pathname -> pathname.isFile()
                     && pathname.getName().endsWith(INPUT_FILES_EXTENSION));
             
-            if (jackFiles != null) {
-                for (File currentFile : jackFiles) {
-                    compile(currentFile);
-                }
+            if (listedFiles != null) {
+                jackFiles = listedFiles;
             }
         }
         else if (sourceToCompile.isFile()) {
-            compile(sourceToCompile);
+            jackFiles = new File[] {sourceToCompile};
+        }
+
+        if (checkOnly) {
+            checkFiles(jackFiles);
+            return;
+        }
+        for (File currentFile : jackFiles) {
+            compile(currentFile);
+        }
+
+        if (runStatistics != null) {
+            reportStatistics("total (" + translatedFiles + " files)", runStatistics, runTime);
         }
     }
     
     
     /**
-     * Accepts a single command line argument (either a file name or a directory name),
+     * Applies the command line options (all the arguments but the last one) to the compiler.
+     *
+     * @param args command line argument array.
+     * @throws IOException in case of a problem creating the token cache.
+     * @throws IllegalArgumentException in case of an unknown or incomplete option.
+     */
+    private void applyOptions(String[] args) throws IOException, IllegalArgumentException {
+
+        File cacheDirectory = null;
+        long cacheSize = DEFAULT_CACHE_SIZE;
+        boolean streaming = false;
+        boolean windowSizeGiven = false;
+        int windowSize = DEFAULT_STREAM_WINDOW;
+
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals(CACHE_OPTION) && i + 1 < args.length - 1) {
+                i++;
+                cacheDirectory = new File(args[i]);
+            }
+            else if (args[i].equals(CACHE_SIZE_OPTION) && i + 1 < args.length - 1) {
+                i++;
+                try {
+                    cacheSize = Long.parseLong(args[i]);
+                }
+                catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("The cache size '" + args[i] + "' isn't a number!");
+                }
+            }
+            else if (args[i].equals(STREAM_OPTION)) {
+                streaming = true;
+            }
+            else if (args[i].equals(BYTE_SCAN_OPTION)) {
+                JackTokenizer.setWordScanning(false);
+            }
+            else if (args[i].equals(PARALLEL_CODEGEN_OPTION)) {
+                if (ForkJoinPool.getCommonPoolParallelism() > 1) {
+                    codegenPool = ForkJoinPool.commonPool();
+                }
+            }
+            else if (args[i].equals(CHECK_OPTION)) {
+                checkOnly = true;
+            }
+            else if (args[i].equals(STATS_OPTION)) {
+                JackTokenizer.setStatisticsRecording(true);
+                runStatistics = new LexerStatistics();
+            }
+            else if (args[i].equals(STREAM_WINDOW_OPTION) && i + 1 < args.length - 1) {
+                i++;
+                windowSizeGiven = true;
+                try {
+                    windowSize = Integer.parseInt(args[i]);
+                }
+                catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("The streaming window size '" + args[i] + "' isn't a number!");
+                }
+            }
+            else {
+                throw new IllegalArgumentException("Unknown or incomplete option '" + args[i] + "'!");
+            }
+        }
+
+        if (checkOnly && runStatistics != null) {
+            throw new IllegalArgumentException("Statistics aren't recorded in syntax check mode!");
+        }
+        if (streaming && cacheDirectory != null) {
+            throw new IllegalArgumentException("Streamed input files can't be cached!");
+        }
+        if (windowSizeGiven && !streaming) {
+            throw new IllegalArgumentException("The '" + STREAM_WINDOW_OPTION + "' option is only valid with the '"
+                                               + STREAM_OPTION + "' option!");
+        }
+        if (streaming) {
+            if (windowSize <= 0 || windowSize > Integer.MAX_VALUE >> 10) {
+                throw new IllegalArgumentException("The streaming window size '" + windowSize + "' is out of range!");
+            }
+            streamWindow = windowSize << 10;
+        }
+        if (cacheSize <= 0 || cacheSize > Long.MAX_VALUE >> 20) {
+            throw new IllegalArgumentException("The cache size '" + cacheSize + "' is out of range!");
+        }
+        if (cacheDirectory != null) {
+            tokenCache = new TokenCache(cacheDirectory, cacheSize << 20);
+        }
+    }
+
+
+    /**
+     * Accepts command line options (see class description) and a source argument
+     * (either a file name or a directory name),
      * and for each source xxx.jack file, creates a VM code file named xxx.vm,
      * and outputs to it the translation of the input jack code, into corresponding Hack VM code.
+     * Exits with status 1 if any file has errors, or in case of an invalid argument or an I/O problem.
      *
      * @param args command line argument array.
      */
     public static void main(String[] args) {
     
         try {
-            JackCompiler compiler = new JackCompiler(createSource(args[ARGUMENT_INDEX]));
+            if (args.length == 0) {
+                throw new IllegalArgumentException("Usage: JackCompiler [options] source");
+            }
+            JackCompiler compiler = new JackCompiler(createSource(args[args.length - 1]));
+            compiler.applyOptions(args);
             compiler.execute();
+            if (compiler.erroneousFiles > 0) {
+                System.exit(1);
+            }
         }
         catch (IOException e) {
             System.err.println("I/O Problem: " + e.getMessage());
+            System.exit(1);
         }
         catch (IllegalArgumentException e) {
             System.err.println(e.getMessage());
+            System.exit(1);
         }
     }
 }
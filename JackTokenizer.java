@@ -1,8 +1,19 @@
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.util.regex.Matcher;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.regex.Pattern;
 
 
@@ -14,138 +25,1518 @@ import java.util.regex.Pattern;
 class JackTokenizer {
 
 
-    // A regular expression describing a keyword in the jack language
-    private static final String KEYWORD = "class|constructor|function|method|field|static|var|int|char|" +
-            "boolean|void|true|false|null|this|let|do|if|else|while|return";
+    // Character classes of the scanner's state machine
+    private static final byte OTHER = 0;
+    private static final byte SPACE = 1;
+    private static final byte LETTER = 2;
+    private static final byte DIGIT = 3;
+    private static final byte QUOTE = 4;
+    private static final byte SYMBOL_CHAR = 5;
 
-    // A regular expression describing a symbol in the jack language
-    private static final String SYMBOL = "[{}()\\[\\].,;+\\-*/&|<>=~]";
+    // The character class of every ASCII character (non-ASCII characters are OTHER)
+    private static final byte[] charClass = new byte[128];
 
-    // A regular expression describing an integer constant in the jack language
-    private static final String INTEGER_CONSTANT = "(\\d+)";
+    static {
+        for (char c = 0; c <= ' '; c++) {
+            charClass[c] = SPACE;
+        }
+        for (char c = 'a'; c <= 'z'; c++) {
+            charClass[c] = LETTER;
+            charClass[Character.toUpperCase(c)] = LETTER;
+        }
+        charClass['_'] = LETTER;
+        for (char c = '0'; c <= '9'; c++) {
+            charClass[c] = DIGIT;
+        }
+        charClass['"'] = QUOTE;
+        for (char c : "{}()[].,;+-*/&|<>=~".toCharArray()) {
+            charClass[c] = SYMBOL_CHAR;
+        }
+    }
+
+    // The number of slots in the keywords perfect hash table (see keywordHash())
+    private static final int KEYWORD_SLOTS = 32;
+
+    // Perfect hash table of the jack-language keywords, and the text of the keyword in every slot
+    private static final Keyword[] keywordTable = new Keyword[KEYWORD_SLOTS];
+    private static final byte[][] keywordText = new byte[KEYWORD_SLOTS][];
+
+    static {
+        for (Keyword keyword : Keyword.values()) {
+            byte[] text = keyword.name().toLowerCase().getBytes(StandardCharsets.US_ASCII);
+            int slot = keywordHash(text[0], text[text.length - 1], text.length);
+
+            if (keywordTable[slot] != null) {
+                throw new IllegalStateException("Keywords " + keywordTable[slot] + " and " + keyword
+                        + " share a hash table slot");
+            }
+            keywordTable[slot] = keyword;
+            keywordText[slot] = text;
+        }
+    }
+
+    // Matches the text of a jack-language keyword (the lookup replaced by the hash table, see setKeywordHashing())
+    private static final Pattern keywordPattern = Pattern.compile(String.join("|", keywordNames()));
+
+
+    // Files of at least this size (in bytes) are memory-mapped instead of being read into the heap
+    private static final long MAPPING_THRESHOLD = 1 << 20;
+
+    // The initial size of the buffer an input stream/channel is read into (grown as needed)
+    private static final int INITIAL_READ_SIZE = 1 << 14;
+
+    // The default minimal size (in bytes) of a chunk of input lexed by a single worker in parallel lexing
+    private static final int DEFAULT_MIN_CHUNK_SIZE = 1 << 18;
+
+    // The largest integer constant of the jack-language (constants are 16-bit, and non-negative)
+    private static final int MAX_INT_CONST = 32767;
+
+    // The token types, keywords and lexical errors, indexed by their ordinals (the kinds and payloads of a TokenBuffer)
+    private static final TokenType[] tokenTypes = TokenType.values();
+    private static final Keyword[] keywords = Keyword.values();
+    private static final LexicalError[] errors = LexicalError.values();
+
+    // Words of 8 bytes with 0x01, and with 0x80 (the high bit), in every byte (see bytesEqual())
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+
+    // Whether runs of blanks, identifier characters and comment bodies are scanned a word (8 bytes) at a time,
+    // or byte by byte (see setWordScanning())
+    private static boolean wordScanning = true;
+
+    // Whether keywords are looked up in the perfect hash table, or matched by a regular expression
+    // (see setKeywordHashing())
+    private static boolean keywordHashing = true;
+
+    // Whether the line and column of every token are tracked (see setLocationTracking())
+    private static boolean locationTracking = true;
+
+    // Whether tokenizers record statistics of their lexing (see setStatisticsRecording())
+    private static boolean statisticsRecording = false;
+
+    // The minimal size (in bytes) of a chunk of input lexed by a single worker in parallel lexing
+    // (see setMinChunkSize())
+    private static int minChunkSize = DEFAULT_MIN_CHUNK_SIZE;
+
+
+    //*** Data Members ***//
+
+    // Channel of the input file (null if the input is held in memory)
+    private FileChannel channel;
+
+    // The whole content of the input file (either a heap buffer or a read-only memory-mapped buffer),
+    // or a fixed-size window of it if the input is streamed
+    private ByteBuffer input;
+
+    // The channel a streamed input is read from (null unless the input is streamed, see available())
+    private ReadableByteChannel stream;
+
+    // The number of bytes in the input (for a streamed input, the number of bytes read into the window)
+    private int limit;
+
+    // The number of bytes of a streamed input discarded from the window so far
+    // (so that an offset in the window is this much further in the whole input)
+    private long discarded;
+
+    // Whether the token being scanned has outgrown the window of a streamed input (see fill())
+    private boolean overflowed;
+
+    // The offset of the next byte to scan in the input
+    private int position;
+
+    // The number of the line holding the next byte to scan (starting from 1), and the offset of its first byte
+    private int line;
+    private int lineStart;
+
+    // The offsets (inclusive and exclusive) of the current token in the input
+    private int tokenStart;
+    private int tokenEnd;
+
+    // The line and column (both starting from 1) of the current token in the input
+    private int tokenLine;
+    private int tokenColumn;
+
+    // Interns the identifiers of the input (null if interning is deferred, see bufferTokens(ForkJoinPool))
+    private IdentifierPool identifiers;
+
+    // The id of the current token in the identifier pool, if it is an identifier (-1 if not interned)
+    private int currentId;
+
+    // The type of the current token, classified once when it is scanned
+    private TokenType currentType;
+
+    // The keyword of the current token (null if it isn't a keyword)
+    private Keyword currentKeyword;
+
+    // The value of the current token, if it is an integer constant (accumulated as its digits are scanned)
+    private int currentValue;
+
+    // The lexical error of the current token, if it is an error
+    private LexicalError currentError;
+
+    // The descriptions of the lexical errors scanned so far, with their locations (null until one is scanned)
+    private List<String> scannedErrors;
+
+    // The pre-lexed tokens of the input (null unless the tokenizer is buffered, see bufferTokens())
+    private TokenBuffer tokens;
+
+    // The position of the current token in the pre-lexed tokens
+    private int cursor;
+
+    // The position of the current token in the token stream of the input (starting from 0)
+    private int tokenIndex;
+
+    // The statistics of the lexing so far, but for the bytes and lines consumed (null unless they are recorded)
+    private LexerStatistics statistics;
+    
+
+    /**
+     * Class constructor.
+     * Opens the input file/stream, and gets ready to tokenize it
+     * (advances to the first token in the code).
+     * Small files are read into a byte array, while large files are memory-mapped.
+     *
+     * @param inputFile the jack code file to tokenize.
+     * @param identifiers the pool to intern the identifiers of the input into.
+     * @throws IOException in case of a problem handling the input file.
+     */
+    JackTokenizer(File inputFile, IdentifierPool identifiers) throws IOException {
+
+        this.identifiers = identifiers;
+
+        channel = FileChannel.open(inputFile.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("The input file '" + inputFile.getName() + "' is too large");
+            }
+            else if (size >= MAPPING_THRESHOLD) {
+                input = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            else {
+                input = ByteBuffer.allocate((int) size);
+                while (input.hasRemaining() && channel.read(input) >= 0) {
+                    // keep reading until the whole file is in the buffer
+                }
+                input.flip();
+            }
+        }
+        catch (IOException e) {
+            channel.close(); // the tokenizer isn't returned, so it can't be closed by the caller
+            throw e;
+        }
+        start(input);
+    }
+
+
+    /**
+     * Creates a tokenizer which streams the input file through a fixed-size window,
+     *  so that it takes the same memory whatever the size of the file.
+     * A streaming tokenizer serves its tokens one by one: it can't be buffered or edited.
+     *
+     * @param inputFile the jack code file to tokenize.
+     * @param windowSize the size (in bytes) of the window (a longer token is a lexical error).
+     * @param identifiers the pool to intern the identifiers of the input into.
+     * @throws IOException in case of a problem handling the input file.
+     */
+    JackTokenizer(File inputFile, int windowSize, IdentifierPool identifiers) throws IOException {
+
+        this.identifiers = identifiers;
+        channel = FileChannel.open(inputFile.toPath(), StandardOpenOption.READ);
+        try {
+            startStreaming(channel, windowSize);
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close(); // the tokenizer isn't returned, so it can't be closed by the caller
+            throw e;
+        }
+    }
+
+
+    /**
+     * Creates a tokenizer which streams the input from a (blocking) channel through a fixed-size window.
+     *
+     * @param source the channel of the jack code to tokenize.
+     * @param windowSize the size (in bytes) of the window (a longer token is a lexical error).
+     * @param identifiers the pool to intern the identifiers of the input into.
+     * @throws IOException in case of a problem reading the channel.
+     */
+    private JackTokenizer(ReadableByteChannel source, int windowSize, IdentifierPool identifiers)
+            throws IOException {
+        this.identifiers = identifiers;
+        startStreaming(source, windowSize);
+    }
+
+
+    /**
+     * Starts streaming the input from a channel through a window of the given size,
+     *  and advances to the first token.
+     *
+     * @throws IOException in case of a problem reading the channel.
+     * @throws IllegalArgumentException if the window size is less than 2 bytes.
+     */
+    private void startStreaming(ReadableByteChannel source, int windowSize) throws IOException {
+
+        if (windowSize < 2) {
+            throw new IllegalArgumentException("The streaming window size must be at least 2 bytes");
+        }
+        stream = source;
+        try {
+            start(ByteBuffer.allocate(windowSize), 0, 0, 1, 0);
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+
+    /**
+     * Creates a tokenizer which streams jack code from a (blocking) channel through a fixed-size window,
+     *  so that it takes the same memory whatever the length of the code.
+     * The channel isn't closed. A problem reading the channel while advancing the tokenizer
+     *  is thrown as an UncheckedIOException.
+     * A streaming tokenizer serves its tokens one by one: it can't be buffered or edited.
+     *
+     * @param source the channel of the jack code to tokenize.
+     * @param windowSize the size (in bytes) of the window (a longer token is a lexical error).
+     * @param identifiers the pool to intern the identifiers of the input into.
+     * @return a tokenizer of the given code, advanced to its first token.
+     * @throws IOException in case of a problem reading the channel.
+     */
+    static JackTokenizer streaming(ReadableByteChannel source, int windowSize, IdentifierPool identifiers)
+            throws IOException {
+        return new JackTokenizer(source, windowSize, identifiers);
+    }
+
+
+    /**
+     * Creates a tokenizer of an input held in memory.
+     *
+     * @param input the content of the input (from offset 0 to its limit).
+     * @param identifiers the pool to intern the identifiers of the input into.
+     */
+    private JackTokenizer(ByteBuffer input, IdentifierPool identifiers) {
+        this.identifiers = identifiers;
+        start(input);
+    }
+
+
+    /**
+     * Creates a tokenizer of a chunk of an input, which doesn't intern the identifiers it scans.
+     * The chunk must start outside of any comment or string constant.
+     *
+     * @param input the content of the input.
+     * @param start the offset of the first byte of the chunk.
+     * @param end the offset following the last byte of the chunk.
+     * @param line the line number of the first byte of the chunk.
+     * @param lineStart the offset of the first byte of that line.
+     */
+    private JackTokenizer(ByteBuffer input, int start, int end, int line, int lineStart) {
+        start(input, start, end, line, lineStart);
+    }
+
+
+    /**
+     * Creates a tokenizer of jack code given as text.
+     *
+     * @param source the jack code to tokenize.
+     * @param identifiers the pool to intern the identifiers of the input into.
+     * @return a tokenizer of the given code, advanced to its first token.
+     */
+    static JackTokenizer fromSource(CharSequence source, IdentifierPool identifiers) {
+        return new JackTokenizer(StandardCharsets.UTF_8.encode(CharBuffer.wrap(source)), identifiers);
+    }
+
+
+    /**
+     * Creates a tokenizer of jack code given as UTF-8 bytes.
+     * The array is scanned in place, so it must not be modified while the tokenizer is in use.
+     *
+     * @param source the jack code to tokenize.
+     * @param identifiers the pool to intern the identifiers of the input into.
+     * @return a tokenizer of the given code, advanced to its first token.
+     */
+    static JackTokenizer fromSource(byte[] source, IdentifierPool identifiers) {
+        return new JackTokenizer(ByteBuffer.wrap(source), identifiers);
+    }
+
+
+    /**
+     * Creates a tokenizer of jack code read from a stream.
+     * The stream is read to its end, but isn't closed.
+     *
+     * @param source the stream of the jack code to tokenize.
+     * @param identifiers the pool to intern the identifiers of the input into.
+     * @return a tokenizer of the given code, advanced to its first token.
+     * @throws IOException in case of a problem reading the stream.
+     */
+    static JackTokenizer fromSource(InputStream source, IdentifierPool identifiers) throws IOException {
+        return fromSource(Channels.newChannel(source), identifiers);
+    }
+
+
+    /**
+     * Creates a tokenizer of jack code read from a (blocking) channel.
+     * The channel is read to its end, but isn't closed.
+     *
+     * @param source the channel of the jack code to tokenize.
+     * @param identifiers the pool to intern the identifiers of the input into.
+     * @return a tokenizer of the given code, advanced to its first token.
+     * @throws IOException in case of a problem reading the channel.
+     */
+    static JackTokenizer fromSource(ReadableByteChannel source, IdentifierPool identifiers) throws IOException {
+
+        ByteBuffer input = ByteBuffer.allocate(INITIAL_READ_SIZE);
+
+        while (source.read(input) >= 0) {
+            if (!input.hasRemaining()) {
+                ByteBuffer larger = ByteBuffer.allocate(input.capacity() * 2);
+                input.flip();
+                larger.put(input);
+                input = larger;
+            }
+        }
+        input.flip();
+        return new JackTokenizer(input, identifiers);
+    }
+
+
+    /**
+     * Gets ready to tokenize the given input, and advances to its first token.
+     */
+    private void start(ByteBuffer input) {
+        start(input, 0, input.limit(), 1, 0);
+    }
+
+
+    /**
+     * Gets ready to tokenize a range of the given input, and advances to its first token.
+     */
+    private void start(ByteBuffer input, int start, int end, int firstLine, int firstLineStart) {
+
+        this.input = input;
+        limit = end;
+        position = start;
+        line = firstLine;
+        lineStart = firstLineStart;
+        if (statisticsRecording) {
+            statistics = new LexerStatistics();
+        }
+
+        tokenIndex = -1; // advanced to the first token
+        advance();
+    }
+
+
+    /**
+     * Switches between scanning runs of blanks, identifier characters and comment bodies a word at a time
+     *  (as 8 bytes in a long, classified together with bitwise arithmetic), and scanning them byte by byte.
+     * Both produce the same tokens. Word scanning is the default, and byte scanning is kept for comparison.
+     * Takes effect for tokens scanned after the call.
+     *
+     * @param enabled whether to scan a word at a time.
+     */
+    static void setWordScanning(boolean enabled) {
+        wordScanning = enabled;
+    }
+
+
+    /**
+     * Switches between looking keywords up in place in a perfect hash table (see keywordHash()),
+     *  and decoding every word into a String, which is matched against a regular expression of the keywords
+     *  and converted with Keyword.valueOf().
+     * Both produce the same tokens. Hashing is the default, and matching is kept for comparison.
+     * Takes effect for tokens scanned after the call.
+     *
+     * @param enabled whether to look keywords up in the hash table.
+     */
+    static void setKeywordHashing(boolean enabled) {
+        keywordHashing = enabled;
+    }
+
+
+    /**
+     * Switches the tracking of the line and column of every token on or off.
+     * Tracking is on by default, and turning it off is only meant for measuring its cost:
+     *  the tokens are the same, but their locations (and the error messages and edits which rely on them)
+     *  are meaningless.
+     * Takes effect for tokens scanned after the call.
+     *
+     * @param enabled whether to track the locations of the tokens.
+     */
+    static void setLocationTracking(boolean enabled) {
+        locationTracking = enabled;
+    }
+
+
+    /**
+     * @return the texts of the jack-language keywords.
+     */
+    private static List<String> keywordNames() {
+
+        List<String> names = new ArrayList<>();
+        for (Keyword keyword : Keyword.values()) {
+            names.add(keyword.name().toLowerCase(Locale.ROOT));
+        }
+        return names;
+    }
+
+
+    /**
+     * Switches the recording of lexing statistics on or off, for the tokenizers created after the call
+     *  (see statistics()).
+     * Recording reads the clock around every token which is scanned on demand, so it is off by default.
+     *
+     * @param enabled whether to record statistics.
+     */
+    static void setStatisticsRecording(boolean enabled) {
+        statisticsRecording = enabled;
+    }
+
+
+    /**
+     * Sets the minimal size of a chunk of input lexed by a single worker in parallel lexing
+     *  (see bufferTokens(ForkJoinPool)), which is 256 KB by default.
+     * Smaller chunks only add overhead to the lexing of real inputs, but they let small inputs be split
+     *  at many places, for checking that the split doesn't change the tokens.
+     *
+     * @param size the minimal chunk size, in bytes.
+     * @throws IllegalArgumentException if the size isn't positive.
+     */
+    static void setMinChunkSize(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("The minimal chunk size " + size + " isn't positive");
+        }
+        minChunkSize = size;
+    }
+
+
+    /**
+     * Returns the (unsigned) byte at the given offset of the input.
+     */
+    private int byteAt(int offset) {
+        return input.get(offset) & 0xFF;
+    }
+
+
+    /**
+     * Checks whether the input holds a byte at the given offset.
+     * If the input is streamed, and the offset is past the bytes read so far, the bytes before the current offset
+     *  are discarded from the window (moving the other bytes, and all the offsets, back by their number),
+     *  and more of the input is read into the window.
+     * Callers must therefore re-read the offsets after calling this method.
+     *
+     * @param offset an offset in the input.
+     * @return whether the input holds a byte at the offset (after moving it if needed).
+     * @throws UncheckedIOException in case of a problem reading a streamed input.
+     */
+    private boolean available(int offset) {
+        return offset < limit || fill(offset);
+    }
+
+
+    /**
+     * Slides the window of a streamed input forward to the current offset, and reads into it
+     *  until it holds the byte at the given offset, or the input ends (see available()).
+     * If the offset is beyond the window even so, the token being scanned is longer than the window:
+     *  the input is treated as ending there, and the token is marked as overflowed (see skipLongToken()).
+     *
+     * @return whether the input holds a byte at the offset (after moving it).
+     */
+    private boolean fill(int offset) {
+
+        if (stream == null) {
+            return false;
+        }
+
+        int shift = position;
+        input.limit(limit).position(shift);
+        input.compact();
+
+        discarded += shift;
+        offset -= shift;
+        position = 0;
+        limit -= shift;
+        lineStart -= shift;
+        tokenStart -= shift;
+        tokenEnd -= shift;
+
+        if (offset >= input.capacity()) {
+            overflowed = true;
+            return false;
+        }
+
+        try {
+            while (offset >= limit && stream.read(input) >= 0) {
+                limit = input.position();
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return offset < limit;
+    }
+
+
+    /**
+     * Returns the character class of the given character.
+     */
+    private static byte classOf(int c) {
+        return c < charClass.length ? charClass[c] : OTHER;
+    }
+
+
+    /**
+     * Classifies the bytes of a word: the bytes of a word read from the input are in input order,
+     *  from its most significant byte to its least significant one.
+     *
+     * @return a word with the high bit set in every byte of the given word which equals the given byte,
+     *  and clear in every other byte.
+     */
+    private static long bytesEqual(long word, int b) {
+        long difference = word ^ (ONES * b);
+        return ~(((difference & ~HIGHS) + ~HIGHS) | difference | ~HIGHS);
+    }
+
+
+    /**
+     * Classifies the bytes of a word (see bytesEqual()).
+     *
+     * @return a word with the high bit set in every byte of the given word which is an ASCII character
+     *  between the given characters (inclusive, and above 0), and clear in every other byte.
+     */
+    private static long bytesBetween(long word, int low, int high) {
+        long ascii = word & ~HIGHS;
+        return (ascii + ONES * (0x80 - low)) & ~(ascii + ONES * (0x7F - high)) & ~word & HIGHS;
+    }
+
+
+    /**
+     * @return the position (0 to 7) in its word of the first byte with a high bit set in the given word.
+     */
+    private static int firstByte(long bytes) {
+        return Long.numberOfLeadingZeros(bytes) >>> 3;
+    }
+
+
+    /**
+     * Counts the line breaks of a word of the input, which is skipped as a whole.
+     *
+     * @param word the word at the given offset of the input.
+     * @param offset the offset of the word.
+     */
+    private void countLineBreaks(long word, int offset) {
+
+        if (!locationTracking) {
+            return;
+        }
+        long breaks = bytesEqual(word, '\n');
+        if (breaks != 0) {
+            line += Long.bitCount(breaks);
+            lineStart = offset + ((63 - Long.numberOfTrailingZeros(breaks)) >>> 3) + 1;
+        }
+    }
+
+
+    /**
+     * Skips the whole words of blanks (space class characters) from the current offset.
+     */
+    private void skipBlankWords() {
+
+        while (position <= limit - Long.BYTES) {
+            long word = input.getLong(position);
+            if ((~(word + ONES * (0x7F - ' ')) & ~word & HIGHS) != HIGHS) {
+                return;
+            }
+            countLineBreaks(word, position);
+            position += Long.BYTES;
+        }
+    }
+
+
+    /**
+     * Skips the whole words of a multi-line comment body which don't hold a '*', from the current offset.
+     */
+    private void skipCommentWords() {
+
+        while (position <= limit - Long.BYTES) {
+            long word = input.getLong(position);
+            if (bytesEqual(word, '*') != 0) {
+                return;
+            }
+            countLineBreaks(word, position);
+            position += Long.BYTES;
+        }
+    }
+
+
+    /**
+     * Skips a word at a time from the current offset up to the next line break,
+     *  or up to the last whole word of the input.
+     */
+    private void skipToLineBreak() {
+
+        while (position <= limit - Long.BYTES) {
+            long breaks = bytesEqual(input.getLong(position), '\n');
+            if (breaks != 0) {
+                position += firstByte(breaks);
+                return;
+            }
+            position += Long.BYTES;
+        }
+    }
+
+
+    /**
+     * Skips a word at a time from the given offset over identifier characters (letters, digits and underscores),
+     *  up to the first other character, or up to the last whole word of the input.
+     *
+     * @return the offset the skipping stopped at.
+     */
+    private int skipIdentifierWords(int offset) {
+
+        while (offset <= limit - Long.BYTES) {
+            long word = input.getLong(offset);
+            long others = ~(bytesBetween(word, 'a', 'z') | bytesBetween(word, 'A', 'Z')
+                            | bytesBetween(word, '0', '9') | bytesEqual(word, '_')) & HIGHS;
+            if (others != 0) {
+                return offset + firstByte(others);
+            }
+            offset += Long.BYTES;
+        }
+        return offset;
+    }
+
+
+    /**
+     * The keywords hash function: it is perfect for the 21 jack-language keywords,
+     *  i.e. no two keywords are mapped to the same slot.
+     *
+     * @param first the first character of the word.
+     * @param last the last character of the word.
+     * @param length the length of the word.
+     * @return the slot of the word in the keywords table.
+     */
+    private static int keywordHash(int first, int last, int length) {
+        return (first * 8 + last * 7 + length * 5) & (KEYWORD_SLOTS - 1);
+    }
+
+
+    /**
+     * Looks up a range of the input in the keywords table, without creating a String of it.
+     *
+     * @param start the offset of the first character of the word.
+     * @param end the offset following the last character of the word.
+     * @return the keyword spelled by the range, or null if it isn't a keyword.
+     */
+    private Keyword lookupKeyword(int start, int end) {
+
+        if (!keywordHashing) {
+            String word = text(start, end);
+            return keywordPattern.matcher(word).matches() ? Keyword.valueOf(word.toUpperCase(Locale.ROOT)) : null;
+        }
+
+        int length = end - start;
+        int slot = keywordHash(byteAt(start), byteAt(end - 1), length);
+        byte[] text = keywordText[slot];
+
+        if (text == null || text.length != length) {
+            return null;
+        }
+        for (int i = 0; i < length; i++) {
+            if (text[i] != input.get(start + i)) {
+                return null;
+            }
+        }
+        return keywordTable[slot];
+    }
+
+
+    /**
+     * Skips white spaces, one-line and multi-line comments in the input, until the next token is met
+     * (or reaching the end of the input).
+     * Comment bodies are skipped byte by byte without being decoded.
+     *
+     * @return false if an unterminated multi-line comment was met (and made the current token), true otherwise.
+     */
+    private boolean skipComments() {
+
+        while (available(position)) {
+            int c = byteAt(position);
+
+            if (classOf(c) == SPACE) {
+                if (c != '\n') {
+                    position++;
+                }
+                else {
+                    newLine();
+                    position++;
+                    if (wordScanning) {
+                        skipBlankWords(); // the indentation of the next line
+                    }
+                }
+            }
+            else if (c != '/' || !available(position + 1)) {
+                return true;
+            }
+            else if (byteAt(position + 1) == '/') {
+                skipLineComment();
+            }
+            else if (byteAt(position + 1) == '*') {
+                if (!skipBlockComment()) {
+                    return false;
+                }
+            }
+            else {
+                return true;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Records that the byte at the current offset is a line break.
+     */
+    private void newLine() {
+        if (locationTracking) {
+            line++;
+            lineStart = position + 1;
+        }
+    }
+
+
+    /**
+     * Skips a one-line comment starting at the current offset, up to the end of its line.
+     */
+    private void skipLineComment() {
+
+        long start = discarded + position;
+        position += 2;
+        if (wordScanning) {
+            skipToLineBreak();
+        }
+        while (available(position) && byteAt(position) != '\n') {
+            position++;
+        }
+        if (statistics != null) {
+            statistics.countComment(discarded + position - start);
+        }
+    }
+
+
+    /**
+     * Skips a multi-line comment starting at the current offset, up to the end of its closing delimiter.
+     * An unterminated comment is made the current token: an error running up to the end of the input.
+     *
+     * @return whether the comment is terminated.
+     */
+    private boolean skipBlockComment() {
+
+        // the start of the comment is kept as the token start, which is moved along with the window of a streamed input
+        tokenStart = position;
+        tokenLine = line;
+        tokenColumn = position - lineStart + 1;
+
+        long start = discarded + position;
+        position += 2;
+        while (true) {
+            if (wordScanning) {
+                skipCommentWords();
+            }
+            if (!available(position + 1)) {
+                break;
+            }
+            int c = byteAt(position);
+            if (c == '*' && byteAt(position + 1) == '/') {
+                position += 2;
+                if (statistics != null) {
+                    statistics.countComment(discarded + position - start);
+                }
+                return true;
+            }
+            else if (c == '\n') {
+                newLine();
+            }
+            position++;
+        }
+        position = limit;
+        tokenEnd = limit;
+        error(LexicalError.UNTERMINATED_COMMENT, limit);
+        return false;
+    }
+
+
+    /**
+     * Scans a token starting at the current offset, and sets the type of the recognized token
+     *  (and its value, if it is an integer constant).
+     * Malformed input is recognized as an error token, after which scanning resumes:
+     *  an unterminated string constant runs up to the end of its line,
+     *  and a run of characters which can't start a token is a single error.
+     *
+     * @return the end offset of the recognized token.
+     */
+    private int scanToken() {
+
+        // the token is scanned relative to its start, which is moved along if the window of a streamed input is
+        int length = 1;
+
+        switch (classOf(byteAt(position))) {
+            case LETTER:
+                while (available(position + length) && (classOf(byteAt(position + length)) == LETTER
+                                                        || classOf(byteAt(position + length)) == DIGIT)) {
+                    length++;
+                    // most identifiers are short, so only the rest of a long one is scanned a word at a time
+                    if (length == Long.BYTES && wordScanning) {
+                        length = skipIdentifierWords(position + length) - position;
+                    }
+                }
+                currentType = TokenType.IDENTIFIER;
+                return position + length;
+
+            case DIGIT:
+                int value = byteAt(position) - '0';
+                while (available(position + length) && classOf(byteAt(position + length)) == DIGIT) {
+                    // saturates, so that long constants can't wrap around into range
+                    value = Math.min(value * 10 + byteAt(position + length) - '0', MAX_INT_CONST + 1);
+                    length++;
+                }
+                if (value > MAX_INT_CONST) {
+                    return error(LexicalError.INTEGER_OUT_OF_RANGE, position + length);
+                }
+                currentType = TokenType.INT_CONST;
+                currentValue = value;
+                return position + length;
+
+            case QUOTE:
+                while (available(position + length) && byteAt(position + length) != '"'
+                       && byteAt(position + length) != '\n') {
+                    length++;
+                }
+                if (available(position + length) && byteAt(position + length) == '"') {
+                    currentType = TokenType.STRING_CONST;
+                    return position + length + 1;
+                }
+                return error(LexicalError.UNTERMINATED_STRING, position + length);
+
+            case SYMBOL_CHAR:
+                currentType = TokenType.SYMBOL;
+                return position + length;
+
+            default:
+                while (available(position + length) && classOf(byteAt(position + length)) == OTHER) {
+                    length++;
+                }
+                return error(LexicalError.INVALID_CHARACTER, position + length);
+        }
+    }
+
+
+    /**
+     * Sets the type of the recognized token to an error.
+     *
+     * @param error the lexical error of the token.
+     * @param end the end offset of the token.
+     * @return the end offset of the token.
+     */
+    private int error(LexicalError error, int end) {
+        currentType = TokenType.ERROR;
+        currentError = error;
+        return end;
+    }
+
+
+    /**
+     * Decodes a range of the input into a String.
+     * ASCII text is copied as is, and only text holding other characters is decoded as UTF-8.
+     *
+     * @param start the offset of the first byte of the range.
+     * @param end the offset following the last byte of the range.
+     */
+    private String text(int start, int end) {
+
+        byte[] bytes = new byte[end - start];
+        boolean ascii = true;
+
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = input.get(start + i);
+            ascii &= bytes[i] >= 0;
+        }
+        return new String(bytes, ascii ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * Gets the next token from the input, and makes it the current token.
+     * This method should only be called if hasMoreTokens() returns true.
+     * Initially, there is no current token.
+     */
+    void advance() {
+        tokenIndex++;
+        if (tokens != null) {
+            cursor++;
+            loadToken(cursor);
+        }
+        else if (statistics == null) {
+            scanNext();
+        }
+        else {
+            long begin = System.nanoTime();
+            scanNext();
+            statistics.countTime(System.nanoTime() - begin);
+        }
+    }
+
+
+    /**
+     * Scans the next token in the input, and makes it the current token.
+     */
+    private void scanNext() {
+
+        currentKeyword = null;
+
+        if (!skipComments()) {
+            countToken(); // an unterminated comment is the current token
+            recordError();
+            return;
+        }
+        if (!available(position)) {
+            currentType = null;
+            return;
+        }
+
+        int end = scanToken();
+        tokenStart = position;
+        tokenEnd = end;
+        if (locationTracking) {
+            tokenLine = line;
+            tokenColumn = position - lineStart + 1;
+        }
+        position = end;
+
+        if (overflowed) {
+            skipLongToken();
+        }
+        else if (currentType == TokenType.IDENTIFIER) {
+            currentKeyword = lookupKeyword(tokenStart, tokenEnd);
+            if (currentKeyword != null) {
+                currentType = TokenType.KEYWORD;
+            }
+            else {
+                currentId = identifiers != null ? identifiers.intern(input, tokenStart, tokenEnd) : -1;
+            }
+        }
+        countToken();
+        if (currentType == TokenType.ERROR) {
+            recordError();
+        }
+    }
+
+
+    /**
+     * Makes the current token, which has outgrown the window of a streamed input, an error token,
+     *  which runs up to the end of its line (like an unterminated string constant),
+     *  since the rest of the token can't be held to tell where it ends.
+     */
+    private void skipLongToken() {
+
+        overflowed = false;
+        while (available(position) && byteAt(position) != '\n') {
+            position++;
+        }
+        tokenEnd = position;
+        error(LexicalError.TOKEN_TOO_LONG, position);
+    }
+
+
+    /**
+     * Records the current token, which is a lexical error (see lexicalErrors()).
+     */
+    private void recordError() {
+        if (scannedErrors == null) {
+            scannedErrors = new ArrayList<>();
+        }
+        scannedErrors.add(describeError(tokenLine, tokenColumn, currentError));
+    }
+
+
+    /**
+     * Counts the current token in the statistics (if they are recorded).
+     */
+    private void countToken() {
+        if (statistics != null) {
+            statistics.countToken(currentType.ordinal());
+        }
+    }
+    
+    
+    /**
+     * Makes a pre-lexed token the current token.
+     *
+     * @param index the position of the token in the pre-lexed tokens.
+     */
+    private void loadToken(int index) {
+
+        currentKeyword = null;
+
+        if (index >= tokens.size()) {
+            currentType = null;
+            return;
+        }
+        currentType = tokenTypes[tokens.kind(index)];
+        tokenStart = tokens.start(index);
+        tokenEnd = tokenStart + tokens.length(index);
+        tokenLine = tokens.line(index);
+        tokenColumn = tokens.column(index);
+
+        if (currentType == TokenType.KEYWORD) {
+            currentKeyword = keywords[tokens.payload(index)];
+        }
+        else if (currentType == TokenType.IDENTIFIER) {
+            currentId = tokens.payload(index);
+        }
+        else if (currentType == TokenType.INT_CONST) {
+            currentValue = tokens.payload(index);
+        }
+        else if (currentType == TokenType.ERROR) {
+            currentError = errors[tokens.payload(index)];
+        }
+    }
 
-    // A regular expression describing a string constant in the jack language
-    private static final String STRING_CONSTANT = "(\"[^\"]*\")";
 
-    // A regular expression describing an identifier in the jack language
-    private static final String IDENTIFIER = "([\\D&&[\\w]][\\w]*)";
+    /**
+     * Lexes the rest of the input, from the current token to the end, into a token buffer.
+     * Afterwards, the tokenizer has no current token.
+     *
+     * @return the buffer of the lexed tokens.
+     */
+    TokenBuffer tokenize() {
 
+        // the whole run is timed at once, rather than every token by advance()
+        long begin = System.nanoTime();
+        TokenBuffer buffer = new TokenBuffer();
 
-    // Patterns for spotting and matching Jack-language lexical elements (as described above)
-    private static final Pattern tokenPattern = Pattern.compile(SYMBOL  + "|" + INTEGER_CONSTANT
-            + "|" + STRING_CONSTANT + "|" + IDENTIFIER);
-    private static final Pattern symbolPattern = Pattern.compile(SYMBOL);
-    private static final Pattern intPattern = Pattern.compile(INTEGER_CONSTANT);
-    private static final Pattern stringPattern = Pattern.compile(STRING_CONSTANT);
-    private static final Pattern keywordPattern = Pattern.compile(KEYWORD);
+        while (currentType != null) {
+            buffer.add(currentType.ordinal(), tokenStart, tokenEnd - tokenStart, payload(), tokenLine, tokenColumn);
+            if (tokens != null) {
+                cursor++;
+                loadToken(cursor);
+            }
+            else {
+                scanNext();
+            }
+        }
+        if (statistics != null) {
+            statistics.countTime(System.nanoTime() - begin);
+        }
+        return buffer;
+    }
 
 
-    //*** Data Members ***//
+    /**
+     * @return the payload of the current token in a token buffer (see TokenBuffer).
+     */
+    private int payload() {
+        switch (currentType) {
+            case KEYWORD: return currentKeyword.ordinal();
+            case SYMBOL: return symbol();
+            case IDENTIFIER: return currentId;
+            case INT_CONST: return currentValue;
+            case ERROR: return currentError.ordinal();
+            default: return 0;
+        }
+    }
 
-    // Buffered reader for parsing the input file
-    private BufferedReader reader;
-    
-    // Current line in the input code file.
-    private String currentLine;
 
-    // The current offset in the current line
-    private int currentOffset;
+    /**
+     * Lexes the whole rest of the input up front, and serves the following tokens from the resulting buffer.
+     * The current token stays the same, and the peek methods become available.
+     *
+     * @throws IllegalStateException if the input is streamed.
+     */
+    void bufferTokens() {
+        requireWholeInput();
+        if (tokens == null) {
+            tokens = tokenize();
+            cursor = 0;
+            loadToken(cursor);
+        }
+    }
 
-    // The current token in the input file
-    private String currentToken;
 
-    // A Matcher object for matching Jack-language tokens
-    private Matcher tokenMatcher;
-    
+    /**
+     * Lexes the whole rest of the input up front like bufferTokens(), but splits it into chunks
+     *  which are lexed in parallel by the workers of the given pool.
+     * The resulting tokens (including the identifier ids) are identical to those of sequential lexing.
+     *
+     * @param pool the pool of the workers lexing the chunks.
+     * @throws IllegalStateException if the input is streamed.
+     */
+    void bufferTokens(ForkJoinPool pool) {
+
+        requireWholeInput();
+        if (tokens != null) {
+            return;
+        }
+        if (currentType == null) {
+            bufferTokens();
+            return;
+        }
+
+        long begin = System.nanoTime();
+        int[] boundaries = findChunkBoundaries(tokenStart, limit, pool.getParallelism());
+        JackTokenizer[] chunks = new JackTokenizer[boundaries.length - 1];
+        List<ForkJoinTask<TokenBuffer>> tasks = new ArrayList<>();
+
+        // the first chunk starts at the current token, and the others at the beginning of a line
+        int chunkLine = tokenLine;
+        int chunkLineStart = tokenStart - tokenColumn + 1;
+
+        for (int i = 0; i < chunks.length; i++) {
+            if (i > 0) {
+                chunkLine += countLines(boundaries[i - 1], boundaries[i]);
+                chunkLineStart = boundaries[i];
+            }
+            chunks[i] = new JackTokenizer(input, boundaries[i], boundaries[i + 1], chunkLine, chunkLineStart);
+            tasks.add(pool.submit(chunks[i]::tokenize));
+        }
+
+        int size = 0;
+        TokenBuffer[] buffers = new TokenBuffer[chunks.length];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = tasks.get(i).join();
+            size += buffers[i].size();
+            if (statistics != null && chunks[i].statistics != null) {
+                statistics.countComment(chunks[i].statistics.commentBytes());
+            }
+        }
+
+        TokenBuffer merged = new TokenBuffer(size);
+        for (TokenBuffer buffer : buffers) {
+            merged.append(buffer);
+        }
+        useTokens(merged);
+        if (statistics != null) {
+            statistics.countTime(System.nanoTime() - begin);
+        }
+    }
+
 
     /**
-     * Class constructor.
-     * Opens the input file/stream, and gets ready to tokenize it
-     * (advances to the first token in the code).
+     * Lexes the whole input up front like bufferTokens(), unless its tokens are found in the given cache.
+     * Newly lexed tokens are stored in the cache.
+     * Called right after the tokenizer is created (before advancing it).
      *
-     * @param inputFile the jack code file to tokenize.
-     * @throws IOException in case of a problem handling the input file.
+     * @param cache the cache of lexed token streams.
+     * @throws IOException in case of a problem reading or writing the cache.
+     * @throws IllegalStateException if the input is streamed.
      */
-    JackTokenizer(File inputFile) throws IOException {
-        
-        reader = Files.newBufferedReader(inputFile.toPath());
-    
-        readLine();
-        advance();
+    void bufferTokens(TokenCache cache) throws IOException {
+
+        requireWholeInput();
+        if (tokens != null) {
+            return;
+        }
+
+        long begin = System.nanoTime();
+        String key = cache.keyOf(input);
+        TokenBuffer cached = cache.load(key);
+
+        if (cached != null && (cached.size() == 0 ? currentType == null : cached.start(0) == tokenStart
+                               && cached.start(cached.size() - 1) + cached.length(cached.size() - 1) <= limit)) {
+            useTokens(cached);
+            if (statistics != null) {
+                statistics.countTime(System.nanoTime() - begin);
+            }
+        }
+        else {
+            bufferTokens();
+            cache.store(key, tokens);
+        }
     }
 
 
     /**
-     * Skips one-line and multi-line comments in the file, until the next token is met
-     * (or reaching the end of the file).
+     * @throws IllegalStateException if the input is streamed (so the tokenizer only holds a window of it).
      */
-    private void skipComments() throws IOException {
-    
-        while (currentLine != null && currentLine.substring(currentOffset).matches("\\s*//.*")) {
-            readLine();
+    private void requireWholeInput() {
+        if (stream != null) {
+            throw new IllegalStateException("A streaming tokenizer can't be buffered or edited");
         }
-    
-        while (currentLine != null && currentLine.substring(currentOffset).matches("\\s*/\\*.*")) {
-            while (currentLine != null && !currentLine.substring(currentOffset).contains("*/")) {
-                currentLine = reader.readLine();
-                currentOffset = 0;
+    }
+
+
+    /**
+     * Serves the following tokens from the given buffer, starting with its first token as the current token.
+     * The identifiers of the buffer are (re-)interned in order, so that they get the same ids
+     *  as in sequential lexing.
+     * If statistics are recorded, the tokens following the current one are counted, and the lines of the rest
+     *  of the input are passed (the comments of a cached input are unknown, since it isn't lexed).
+     *
+     * @param buffer the tokens of the rest of the input, from the current token on.
+     */
+    private void useTokens(TokenBuffer buffer) {
+
+        int identifierKind = TokenType.IDENTIFIER.ordinal();
+        for (int i = 0; i < buffer.size(); i++) {
+            if (buffer.kind(i) == identifierKind) {
+                int start = buffer.start(i);
+                buffer.setPayload(i, identifiers.intern(input, start, start + buffer.length(i)));
+            }
+        }
+
+        if (statistics != null) {
+            for (int i = 1; i < buffer.size(); i++) {
+                statistics.countToken(buffer.kind(i));
             }
-            if (currentLine != null) {
-                tokenMatcher = tokenPattern.matcher(currentLine);
-                currentOffset = currentLine.substring(currentOffset).indexOf("*/") + currentOffset + 2;
+            for (int i = position; i < limit; i++) {
+                if (byteAt(i) == '\n') {
+                    line++;
+                    lineStart = i + 1;
+                }
             }
         }
+
+        tokens = buffer;
+        position = limit;
+        cursor = 0;
+        loadToken(cursor);
     }
-    
-    
+
+
     /**
-     * Advances the tokenizer to the next line in the input code file,
-     *  and resets the current offset to 0.
+     * Applies an edit to the input, and re-lexes only the region affected by it.
+     * Lexing restarts at the end of the last token before the line of the edit
+     *  (an unterminated string constant earlier on that line may be closed by the edit),
+     *  and stops as soon as a token following the edit starts where a token of the previous input did,
+     *  since from there on the lexer sees the same text in the same state.
+     * The following tokens are kept, and only moved by the change in offsets, lines and columns.
+     * Afterwards, the tokenizer is buffered, and its current token is the first token of the edited input.
+     *
+     * @param offset the offset (in bytes) of the edit in the input.
+     * @param removedLength the number of bytes removed from the input at the offset.
+     * @param insertedText the text inserted into the input at the offset (instead of the removed bytes).
+     * @throws IllegalArgumentException if the removed range isn't within the input.
+     * @throws IllegalStateException if the input is streamed.
      */
-    private void readLine() throws IOException {
-        currentLine = reader.readLine();
-        currentOffset = 0;
-        if (currentLine != null) {
-            tokenMatcher = tokenPattern.matcher(currentLine);
+    void edit(int offset, int removedLength, CharSequence insertedText) {
+
+        requireWholeInput();
+        if (offset < 0 || removedLength < 0 || offset > limit - removedLength) {
+            throw new IllegalArgumentException("The edit of " + removedLength + " bytes at offset " + offset
+                    + " isn't within the input of " + limit + " bytes");
+        }
+        bufferTokens();
+
+        ByteBuffer inserted = StandardCharsets.UTF_8.encode(CharBuffer.wrap(insertedText));
+        int insertedLength = inserted.remaining();
+        int delta = insertedLength - removedLength;
+
+        ByteBuffer edited = ByteBuffer.allocate(limit + delta);
+        ByteBuffer previous = input.duplicate();
+        previous.limit(offset).position(0);
+        edited.put(previous).put(inserted);
+        previous.limit(limit).position(offset + removedLength);
+        edited.put(previous);
+        edited.flip();
+
+        // the lexer state is known at the start and end of every token, except at the end of an unterminated comment
+        // (which is the only token spanning a line break, and runs to the end of the input)
+        int editLineStart = offset;
+        while (editLineStart > 0 && byteAt(editLineStart - 1) != '\n') {
+            editLineStart--;
+        }
+        int first = tokens.firstStartingAt(editLineStart);
+        int restart = 0;
+        int restartLine = 1;
+        int restartLineStart = 0;
+        if (first > 0) {
+            int last = first - 1;
+            restart = tokens.start(last) + tokens.length(last);
+            restartLine = tokens.line(last);
+            restartLineStart = tokens.start(last) - tokens.column(last) + 1;
+            if (restart >= editLineStart) {
+                first = last;
+                restart = tokens.start(last);
+            }
+        }
+
+        JackTokenizer relexer = new JackTokenizer(edited, restart, edited.limit(), restartLine, restartLineStart);
+        TokenBuffer relexed = new TokenBuffer();
+        int next = first;
+
+        while (relexer.currentType != null) {
+            int start = relexer.tokenStart;
+            if (start >= offset + insertedLength) {
+                while (next < tokens.size() && tokens.start(next) < start - delta) {
+                    next++;
+                }
+                if (next < tokens.size() && tokens.start(next) == start - delta) {
+                    break; // resynchronized with the previous tokens
+                }
+            }
+            relexed.add(relexer.currentType.ordinal(), start, relexer.tokenEnd - start, relexer.payload(),
+                        relexer.tokenLine, relexer.tokenColumn);
+            relexer.advance();
+        }
+
+        int identifierKind = TokenType.IDENTIFIER.ordinal();
+        for (int i = 0; i < relexed.size(); i++) {
+            if (relexed.kind(i) == identifierKind) {
+                int start = relexed.start(i);
+                relexed.setPayload(i, identifiers.intern(edited, start, start + relexed.length(i)));
+            }
+        }
+
+        if (relexer.currentType != null) {
+            tokens.shift(next, delta, relexer.tokenLine - tokens.line(next),
+                         relexer.tokenColumn - tokens.column(next));
+            tokens.splice(first, next, relexed);
         }
         else {
-            tokenMatcher = null;
+            tokens.splice(first, tokens.size(), relexed);
         }
+
+        input = edited;
+        limit = edited.limit();
+        position = limit;
+        cursor = 0;
+        tokenIndex = 0;
+        loadToken(cursor);
     }
-    
-    
+
+
     /**
-     * Gets the next token from the input, and makes it the current token.
-     * This method should only be called if hasMoreTokens() returns true.
-     * Initially, there is no current token.
+     * Splits a range of the input into chunks that can be lexed independently.
+     * Chunks are split right after line breaks which aren't inside a multi-line comment
+     *  (string constants and one-line comments never span a line break),
+     *  as found by a pre-scan which only tracks comments and string constants.
+     *
+     * @param start the offset of the first byte of the range (outside of any comment or string constant).
+     * @param end the offset following the last byte of the range.
+     * @param parallelism the desired number of chunks.
+     * @return the offsets of the chunk boundaries, starting with start and ending with end.
      */
-    void advance() throws IOException {
-        
-        boolean found = false;
-        skipComments();
-        if (tokenMatcher != null) {
-            found = tokenMatcher.find(currentOffset);
+    private int[] findChunkBoundaries(int start, int end, int parallelism) {
+
+        int chunkSize = Math.max(minChunkSize, (end - start) / Math.max(parallelism, 1) + 1);
+        List<Integer> boundaries = new ArrayList<>();
+        boundaries.add(start);
+
+        int target = start + chunkSize;
+        int offset = start;
+
+        while (offset < end) {
+            int c = byteAt(offset);
+
+            if (c == '\n') {
+                offset++;
+                if (offset >= target && offset < end) {
+                    boundaries.add(offset);
+                    target = offset + chunkSize;
+                }
+            }
+            else if (c == '"') {
+                int close = offset + 1;
+                while (close < end && byteAt(close) != '"' && byteAt(close) != '\n') {
+                    close++;
+                }
+                // an unterminated string constant is an error token up to the end of its line
+                offset = close < end && byteAt(close) == '"' ? close + 1 : close;
+            }
+            else if (c == '/' && offset + 1 < end && byteAt(offset + 1) == '/') {
+                offset += 2;
+                while (offset < end && byteAt(offset) != '\n') {
+                    offset++;
+                }
+            }
+            else if (c == '/' && offset + 1 < end && byteAt(offset + 1) == '*') {
+                offset += 2;
+                while (offset + 1 < end && (byteAt(offset) != '*' || byteAt(offset + 1) != '/')) {
+                    offset++;
+                }
+                offset += 2;
+            }
+            else {
+                offset++;
+            }
+        }
+        boundaries.add(end);
+
+        int[] result = new int[boundaries.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = boundaries.get(i);
         }
+        return result;
+    }
+
+
+    /**
+     * @return the number of line breaks in a range of the input.
+     */
+    private int countLines(int start, int end) {
 
-        while (!found && currentLine != null) {
-            readLine();
-            skipComments();
-            if (tokenMatcher != null) {
-                found = tokenMatcher.find(currentOffset);
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            if (byteAt(i) == '\n') {
+                count++;
             }
         }
-        if (found) {
-            currentToken = tokenMatcher.group();
-            currentOffset = tokenMatcher.end();
+        return count;
+    }
+
+
+    /**
+     * Returns the position of the k-th token after the current one in the pre-lexed tokens,
+     *  or -1 if the input ends before it.
+     *
+     * @throws IllegalStateException if the tokenizer isn't buffered.
+     */
+    private int peekIndex(int k) {
+        if (tokens == null) {
+            throw new IllegalStateException("Lookahead requires a buffered tokenizer");
         }
-        else currentToken = null;
+        int index = cursor + k;
+        return index < tokens.size() ? index : -1;
     }
-    
-    
+
+
+    /**
+     * Called only on a buffered tokenizer (see bufferTokens()).
+     * @param k the number of tokens to look ahead (0 is the current token).
+     * @return the type of the k-th token after the current one, or null if the input ends before it.
+     */
+    TokenType peekType(int k) {
+        int index = peekIndex(k);
+        return index >= 0 ? tokenTypes[tokens.kind(index)] : null;
+    }
+
+
+    /**
+     * Called only on a buffered tokenizer, when peekType(k) returns KEYWORD.
+     * @param k the number of tokens to look ahead (0 is the current token).
+     * @return the keyword which is the k-th token after the current one.
+     */
+    Keyword peekKeyword(int k) {
+        return keywords[tokens.payload(peekIndex(k))];
+    }
+
+
+    /**
+     * Called only on a buffered tokenizer, when peekType(k) returns SYMBOL.
+     * @param k the number of tokens to look ahead (0 is the current token).
+     * @return the character which is the k-th token after the current one.
+     */
+    char peekSymbol(int k) {
+        return (char) tokens.payload(peekIndex(k));
+    }
+
+
     /**
      * Advances the tokenizer twice (to the token after the next one).
      */
-    void advanceTwice() throws IOException {
+    void advanceTwice() {
         advance();
         advance();
     }
@@ -155,7 +1546,7 @@ class JackTokenizer {
      * Represents a jack-language token type.
      */
     public enum TokenType {
-        KEYWORD, SYMBOL, IDENTIFIER, INT_CONST, STRING_CONST;
+        KEYWORD, SYMBOL, IDENTIFIER, INT_CONST, STRING_CONST, ERROR;
         
         @Override
         public String toString() {
@@ -172,22 +1563,7 @@ class JackTokenizer {
      * @return the type of the current token.
      */
     TokenType tokenType() {
-        
-        if (symbolPattern.matcher(currentToken).matches()) {
-            return TokenType.SYMBOL;
-        }
-        else if (intPattern.matcher(currentToken).matches()) {
-            return TokenType.INT_CONST;
-        }
-        else if (stringPattern.matcher(currentToken).matches()) {
-            return TokenType.STRING_CONST;
-        }
-        else if (keywordPattern.matcher(currentToken).matches()) {
-            return TokenType.KEYWORD;
-        }
-        else {
-            return TokenType.IDENTIFIER;
-        }
+        return currentType;
     }
 
 
@@ -198,12 +1574,36 @@ class JackTokenizer {
                          LET, DO, IF, ELSE, WHILE, RETURN, TRUE, FALSE, NULL, THIS}
 
 
+    /**
+     * Represents a lexical error of the input.
+     */
+    public enum LexicalError {
+        UNTERMINATED_STRING("unterminated string constant"),
+        UNTERMINATED_COMMENT("unterminated comment"),
+        INVALID_CHARACTER("invalid character"),
+        INTEGER_OUT_OF_RANGE("integer constant out of range (0.." + MAX_INT_CONST + ")"),
+        TOKEN_TOO_LONG("token longer than the streaming window");
+
+        // The description of the error
+        private final String description;
+
+        LexicalError(String description) {
+            this.description = description;
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+    }
+
+
     /**
      * Called when tokenType() returns KEYWORD
      * @return the keyword which is the current token
      */
     Keyword keyword() {
-        return Keyword.valueOf(currentToken.toUpperCase());
+        return currentKeyword;
     }
     
     
@@ -212,7 +1612,7 @@ class JackTokenizer {
      * @return the character which is the current token
      */
     char symbol() {
-        return currentToken.charAt(0); //if it's a symbol, it's a string with one char
+        return (char) byteAt(tokenStart); //if it's a symbol, it's a single ASCII character
     }
     
     
@@ -221,16 +1621,76 @@ class JackTokenizer {
      * @return the identifier which is the current token
      */
     String identifier() {
-        return currentToken;
+        return identifiers.name(currentId);
+    }
+
+
+    /**
+     * Called when tokenType() returns IDENTIFIER
+     * @return the id of the identifier which is the current token, in the identifier pool
+     */
+    int identifierId() {
+        return currentId;
     }
     
     
+    /**
+     * Called when tokenType() returns ERROR
+     * @return the lexical error which is the current token
+     */
+    LexicalError lexicalError() {
+        return currentError;
+    }
+
+
+    /**
+     * Lists the lexical errors of the whole input.
+     * The errors are recorded as the tokens are scanned, so once the tokenizer is advanced to the end of its input
+     *  (by a parser, for example), they are listed without lexing anything again.
+     * Otherwise, the rest of the input is lexed first, and the tokenizer is advanced to the end of its input.
+     * A buffered tokenizer stays at its current token, and lists the errors among its buffered tokens
+     *  (those from the token which was current when it was buffered on).
+     *
+     * @return the descriptions of the errors (with their locations), in order.
+     */
+    List<String> lexicalErrors() {
+
+        List<String> descriptions = new ArrayList<>();
+
+        if (tokens != null) {
+            int errorKind = TokenType.ERROR.ordinal();
+            for (int i = 0; i < tokens.size(); i++) {
+                if (tokens.kind(i) == errorKind) {
+                    descriptions.add(describeError(tokens.line(i), tokens.column(i), errors[tokens.payload(i)]));
+                }
+            }
+            return descriptions;
+        }
+
+        while (currentType != null) {
+            advance();
+        }
+        if (scannedErrors != null) {
+            descriptions.addAll(scannedErrors);
+        }
+        return descriptions;
+    }
+
+
+    /**
+     * @return the description of a lexical error at the given location.
+     */
+    private static String describeError(int line, int column, LexicalError error) {
+        return "line " + line + ", column " + column + ": " + error;
+    }
+
+
     /**
      * Called when tokenType() returns INT_CONST
      * @return the integer value of the current token
      */
     int intVal() {
-        return Integer.parseInt(currentToken);
+        return currentValue;
     }
     
     
@@ -239,16 +1699,147 @@ class JackTokenizer {
      * @return the string value of the current token, without the double quotes
      */
     String stringVal() {
-        return currentToken.substring(1, currentToken.length() - 1);
+        return stringView().toString();
+    }
+
+
+    /**
+     * Called when tokenType() returns STRING_CONST.
+     * An ASCII string constant is viewed in place, without being copied out of the input,
+     *  while one holding other characters is decoded (as UTF-8).
+     * The view stays valid after the tokenizer advances.
+     * The string constants of a streamed input are always copied, since its window is reused.
+     *
+     * @return the string value of the current token, without the double quotes
+     */
+    CharSequence stringView() {
+
+        int start = tokenStart + 1;
+        int end = tokenEnd - 1;
+
+        if (stream != null) {
+            return text(start, end);
+        }
+        for (int i = start; i < end; i++) {
+            if (input.get(i) < 0) {
+                return text(start, end);
+            }
+        }
+        return new AsciiView(input, start, end - start);
+    }
+
+
+    /**
+     * A view of a range of ASCII bytes of the input as a character sequence.
+     */
+    private static class AsciiView implements CharSequence {
+
+        // The viewed input
+        private final ByteBuffer input;
+
+        // The offset of the first viewed byte, and the number of viewed bytes
+        private final int offset;
+        private final int length;
+
+
+        /**
+         * Creates a view of a range of the given input.
+         */
+        AsciiView(ByteBuffer input, int offset, int length) {
+            this.input = input;
+            this.offset = offset;
+            this.length = length;
+        }
+
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("Index " + index + " out of a sequence of length " + length);
+            }
+            return (char) input.get(offset + index);
+        }
+
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || start > end || end > length) {
+                throw new IndexOutOfBoundsException("Range " + start + ".." + end
+                        + " out of a sequence of length " + length);
+            }
+            return new AsciiView(input, offset + start, end - start);
+        }
+
+
+        @Override
+        public String toString() {
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = input.get(offset + i);
+            }
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+
+    /**
+     * Returns the statistics of the lexing so far (when recorded, see setStatisticsRecording()):
+     *  the tokens scanned, the bytes and lines consumed up to the end of the scanned tokens,
+     *  the comments skipped, and the time spent lexing (including the lexing of the rest of the input by lexicalErrors()).
+     * A buffered tokenizer has consumed its whole input.
+     *
+     * @return a copy of the statistics, or null if they aren't recorded.
+     */
+    LexerStatistics statistics() {
+
+        if (statistics == null) {
+            return null;
+        }
+        LexerStatistics copy = new LexerStatistics();
+        copy.add(statistics);
+        copy.countInput(discarded + position, line - 1 + (position > lineStart ? 1 : 0));
+        return copy;
     }
 
 
     /**
-     * Closes the reader stream object.
+     * @return the position of the current token in the token stream of the input (starting from 0).
+     */
+    int tokenIndex() {
+        return tokenIndex;
+    }
+
+
+    /**
+     * @return the line of the current token in the input (starting from 1).
+     */
+    int line() {
+        return tokenLine;
+    }
+
+
+    /**
+     * @return the column of the current token in its line (starting from 1, counted in bytes).
+     */
+    int column() {
+        return tokenColumn;
+    }
+
+
+    /**
+     * Closes the input file channel (if the input is a file).
      *
-     * @throws IOException in case of a problem closing the file reader.
+     * @throws IOException in case of a problem closing the input file.
      */
     void close() throws IOException {
-        reader.close();
+        if (channel != null) {
+            channel.close();
+        }
     }
 }
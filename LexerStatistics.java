@@ -0,0 +1,168 @@
+import java.util.Locale;
+
+
+/**
+ * Statistics of the lexing of jack code: the number of tokens of every type, the bytes and lines consumed,
+ *  the bytes of the comments skipped, and the wall time spent lexing.
+ * Recorded by a JackTokenizer (see JackTokenizer.setStatisticsRecording()), and added up over the files of a run.
+ */
+class LexerStatistics {
+
+
+    // The token types, indexed by their ordinals
+    private static final JackTokenizer.TokenType[] tokenTypes = JackTokenizer.TokenType.values();
+
+
+    //*** Data Members ***//
+
+    // The number of tokens of every type, indexed by the ordinal of the type
+    private long[] tokenCounts;
+
+    // The number of bytes and lines of input consumed
+    private long bytes;
+    private long lines;
+
+    // The number of bytes of the comments skipped
+    private long commentBytes;
+
+    // The wall time spent lexing, in nanoseconds
+    private long time;
+
+
+    /**
+     * Creates new empty statistics.
+     */
+    LexerStatistics() {
+        tokenCounts = new long[tokenTypes.length];
+    }
+
+
+    /**
+     * Counts a token.
+     *
+     * @param kind the ordinal of the type of the token.
+     */
+    void countToken(int kind) {
+        tokenCounts[kind]++;
+    }
+
+
+    /**
+     * Counts consumed input.
+     *
+     * @param bytes the number of bytes consumed.
+     * @param lines the number of lines consumed.
+     */
+    void countInput(long bytes, long lines) {
+        this.bytes += bytes;
+        this.lines += lines;
+    }
+
+
+    /**
+     * Counts a skipped comment.
+     *
+     * @param bytes the number of bytes of the comment.
+     */
+    void countComment(long bytes) {
+        commentBytes += bytes;
+    }
+
+
+    /**
+     * Counts time spent lexing.
+     *
+     * @param nanoseconds the wall time spent.
+     */
+    void countTime(long nanoseconds) {
+        time += nanoseconds;
+    }
+
+
+    /**
+     * Adds other statistics to these statistics.
+     *
+     * @param other the statistics to add.
+     */
+    void add(LexerStatistics other) {
+        for (int i = 0; i < tokenCounts.length; i++) {
+            tokenCounts[i] += other.tokenCounts[i];
+        }
+        bytes += other.bytes;
+        lines += other.lines;
+        commentBytes += other.commentBytes;
+        time += other.time;
+    }
+
+
+    /**
+     * @param type a token type.
+     * @return the number of tokens of the given type.
+     */
+    long tokens(JackTokenizer.TokenType type) {
+        return tokenCounts[type.ordinal()];
+    }
+
+
+    /**
+     * @return the number of tokens of all types.
+     */
+    long tokens() {
+        long total = 0;
+        for (long count : tokenCounts) {
+            total += count;
+        }
+        return total;
+    }
+
+
+    /**
+     * @return the number of bytes of input consumed.
+     */
+    long bytes() {
+        return bytes;
+    }
+
+
+    /**
+     * @return the number of lines of input consumed.
+     */
+    long lines() {
+        return lines;
+    }
+
+
+    /**
+     * @return the number of bytes of the comments skipped.
+     */
+    long commentBytes() {
+        return commentBytes;
+    }
+
+
+    /**
+     * @return the wall time spent lexing, in nanoseconds.
+     */
+    long time() {
+        return time;
+    }
+
+
+    /**
+     * @return a one-line summary of the statistics.
+     */
+    @Override
+    public String toString() {
+
+        StringBuilder summary = new StringBuilder();
+        summary.append(tokens()).append(" tokens (");
+        for (int i = 0; i < tokenCounts.length; i++) {
+            summary.append(i > 0 ? ", " : "").append(tokenTypes[i]).append(' ').append(tokenCounts[i]);
+        }
+        summary.append("), ").append(bytes).append(" bytes, ").append(lines).append(" lines, ")
+               .append(commentBytes).append(" comment bytes (")
+               .append(String.format(Locale.ROOT, "%.1f%%", bytes > 0 ? 100.0 * commentBytes / bytes : 0.0))
+               .append("), lexed in ").append(String.format(Locale.ROOT, "%.2f ms", time / 1e6));
+        return summary.toString();
+    }
+}
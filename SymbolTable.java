@@ -1,12 +1,13 @@
-import java.util.Map;
-import java.util.HashMap;
+import java.util.Arrays;
 
 
 /**
  * Provides a symbol table abstraction.
- * The symbol table associates the identifier names found in the program with identifier properties
- *  needed for compilation: type, kind, and a running index.
+ * The symbol table associates the identifiers found in the program (by their ids in the identifier pool)
+ *  with identifier properties needed for compilation: type, kind, and a running index.
  * The symbol table for Jack programs has two nested scopes (class/subroutine).
+ * Once the class scope is complete, several tables may share it (see SymbolTable(SymbolTable)),
+ *  each with a subroutine scope of its own, for compiling subroutines concurrently.
  */
 class SymbolTable {
     
@@ -20,9 +21,15 @@ class SymbolTable {
     private int argumentCount;
     private int localsCount;
     
-    // Maps for keeping the correspondence between identifier names and their properties
-    private Map<String, IdProperties> classTable;
-    private Map<String, IdProperties> subroutineTable;
+    // The initial capacity of the tables (grown as identifiers with larger ids are defined)
+    private static final int INITIAL_CAPACITY = 256;
+
+    // Tables keeping the correspondence between identifier ids and their properties (null if undefined)
+    private IdProperties[] classTable;
+    private IdProperties[] subroutineTable;
+
+    // The ids of the identifiers defined in the current subroutine scope
+    private int[] subroutineIds;
     
     
     /**
@@ -30,14 +37,14 @@ class SymbolTable {
      */
     static private class IdProperties {
         
-        String type;
+        int type;
         Kind kind;
         int index;
         
         /**
          * Class constructor.
          */
-        IdProperties(String type, Kind kind, int index) {
+        IdProperties(int type, Kind kind, int index) {
             this.type = type;
             this.kind = kind;
             this.index = index;
@@ -49,17 +56,36 @@ class SymbolTable {
      * Creates a new empty symbol table.
      */
     SymbolTable() {
-        classTable = new HashMap<>();
+        classTable = new IdProperties[INITIAL_CAPACITY];
+        subroutineTable = new IdProperties[INITIAL_CAPACITY];
+        subroutineIds = new int[INITIAL_CAPACITY];
         staticCount = 0;
         fieldCount = 0;
     }
     
     
+    /**
+     * Creates a symbol table which shares the class scope of another table, with an empty subroutine scope.
+     * The class scope must not be changed while the tables share it.
+     *
+     * @param classScope the table whose class scope is shared.
+     */
+    SymbolTable(SymbolTable classScope) {
+        classTable = classScope.classTable;
+        subroutineTable = new IdProperties[INITIAL_CAPACITY];
+        subroutineIds = new int[INITIAL_CAPACITY];
+        staticCount = classScope.staticCount;
+        fieldCount = classScope.fieldCount;
+    }
+    
+    
     /**
      * Starts a new subroutine scope (i.e. resets the subroutine symbol table).
      */
     void startSubroutine() {
-        subroutineTable = new HashMap<>();
+        for (int i = 0; i < argumentCount + localsCount; i++) {
+            subroutineTable[subroutineIds[i]] = null;
+        }
         argumentCount = 0;
         localsCount = 0;
     }
@@ -82,33 +108,60 @@ class SymbolTable {
     }
     
     
+    /**
+     * Returns a copy of a table grown to hold an identifier of the given id (or the table itself, if it can).
+     */
+    private static IdProperties[] ensureCapacity(IdProperties[] table, int id) {
+        if (id >= table.length) {
+            return Arrays.copyOf(table, Math.max(id + 1, table.length * 2));
+        }
+        return table;
+    }
+
+
+    /**
+     * Records the definition of an identifier in the subroutine scope.
+     */
+    private void defineInSubroutine(int name, IdProperties properties) {
+        subroutineTable = ensureCapacity(subroutineTable, name);
+        int count = argumentCount + localsCount;
+        if (count == subroutineIds.length) {
+            subroutineIds = Arrays.copyOf(subroutineIds, count * 2);
+        }
+        subroutineIds[count] = name;
+        subroutineTable[name] = properties;
+    }
+
+
     /**
      * Defines a new identifier of a given name, type and kind,
      *  and assigns it a running index.
      * STATIC and FIELD identifiers have a class scope,
      *  while ARG and VAR identifiers have a subroutine scope.
      *
-     * @param name the name of the newly defined identifier.
-     * @param type the type of the newly defined identifier.
+     * @param name the id of the newly defined identifier.
+     * @param type the id of the type of the newly defined identifier.
      * @param kind the kind of the newly defined identifier.
      */
-    void define(String name, String type, Kind kind) {
-        
+    void define(int name, int type, Kind kind) {
+
         switch (kind) {
             case STATIC:
-                classTable.put(name, new IdProperties(type, kind, staticCount));
+                classTable = ensureCapacity(classTable, name);
+                classTable[name] = new IdProperties(type, kind, staticCount);
                 staticCount++;
                 break;
             case FIELD:
-                classTable.put(name, new IdProperties(type, kind, fieldCount));
+                classTable = ensureCapacity(classTable, name);
+                classTable[name] = new IdProperties(type, kind, fieldCount);
                 fieldCount++;
                 break;
             case ARG:
-                subroutineTable.put(name, new IdProperties(type, kind, argumentCount));
+                defineInSubroutine(name, new IdProperties(type, kind, argumentCount));
                 argumentCount++;
                 break;
             case VAR:
-                subroutineTable.put(name, new IdProperties(type, kind, localsCount));
+                defineInSubroutine(name, new IdProperties(type, kind, localsCount));
                 localsCount++;
                 break;
         }
@@ -139,56 +192,54 @@ class SymbolTable {
     
     
     /**
-     * Returns the kind of the named identifier of the current scope.
-     * If the identifier is unknown in the current scope, returns NONE.
-     *
-     * @param name the name of the referenced identifier.
-     * @return the kind of the variable with the given name.
+     * Returns the properties of the identifier of the given id in the current scope
+     *  (null if the identifier is unknown in the current scope).
      */
-    Kind kindOf(String name) {
-        
-        if (subroutineTable.containsKey(name)) {
-            return subroutineTable.get(name).kind;
+    private IdProperties lookup(int name) {
+
+        if (name < subroutineTable.length && subroutineTable[name] != null) {
+            return subroutineTable[name];
         }
-        else if (classTable.containsKey(name)) {
-            return classTable.get(name).kind;
+        else if (name < classTable.length) {
+            return classTable[name];
         }
         else {
-            return Kind.NONE;
+            return null;
         }
     }
+
+
+    /**
+     * Returns the kind of the named identifier of the current scope.
+     * If the identifier is unknown in the current scope, returns NONE.
+     *
+     * @param name the id of the referenced identifier.
+     * @return the kind of the variable with the given name.
+     */
+    Kind kindOf(int name) {
+        IdProperties properties = lookup(name);
+        return properties != null ? properties.kind : Kind.NONE;
+    }
     
     
     /**
      * Returns the type of the named identifier of the current scope.
      *
-     * @param name the name of the referenced identifier.
-     * @return the type of the variable with the given name.
+     * @param name the id of the referenced identifier.
+     * @return the id of the type of the variable with the given name.
      */
-    String typeOf(String name) {
-    
-        if (subroutineTable.containsKey(name)) {
-            return subroutineTable.get(name).type;
-        }
-        else {
-            return classTable.get(name).type;
-        }
+    int typeOf(int name) {
+        return lookup(name).type;
     }
     
     
     /**
      * Returns the index assigned to the named identifier.
      *
-     * @param name the name of the referenced identifier.
+     * @param name the id of the referenced identifier.
      * @return the index of the variable with the given name.
      */
-    int indexOf(String name) {
-    
-        if (subroutineTable.containsKey(name)) {
-            return subroutineTable.get(name).index;
-        }
-        else {
-            return classTable.get(name).index;
-        }
+    int indexOf(int name) {
+        return lookup(name).index;
     }
 }
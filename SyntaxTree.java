@@ -0,0 +1,340 @@
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+
+/**
+ * The abstract syntax tree of a jack class, stored in an arena of parallel primitive arrays
+ *  (struct of arrays) rather than as an object per node.
+ * Every node is an int: the position of its entries in the arrays, which hold its kind
+ *  (the ordinal of its NodeKind), its first child, its next sibling, the index of its token in the token stream
+ *  of the input (for locating it), and a value whose meaning depends on the kind (see NodeKind).
+ * The nodes are numbered in pre-order, and the class node (the root) is node 0.
+ * The characters of the string constants are kept together in a single array.
+ *
+ * The tree is built top-down by a parser: open() starts a node as the last child of the innermost open node,
+ *  leaf() adds a childless node there, and close() ends the innermost open node.
+ */
+class SyntaxTree {
+
+
+    // Stands for a missing node (no child / no sibling)
+    static final int NONE = -1;
+
+    // The initial number of nodes the tree can hold (grown as nodes are added)
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // The initial number of string constant characters the tree can hold (grown as strings are added)
+    private static final int INITIAL_STRING_CAPACITY = 256;
+
+    // The initial number of nodes which can be open at once (grown as deeper nodes are opened)
+    private static final int INITIAL_DEPTH = 64;
+
+    // The node kinds, indexed by their ordinals
+    private static final NodeKind[] nodeKinds = NodeKind.values();
+
+
+    /**
+     * Represents the kind of a node: a syntactic element of the jack grammar.
+     * The children and the value of every kind of node are given below
+     *  (identifiers and types are given by their ids in the identifier pool).
+     */
+    enum NodeKind {
+        CLASS,              // value: the class name; children: CLASS_VAR_DEC*, SUBROUTINE*
+        CLASS_VAR_DEC,      // value: the STATIC|FIELD keyword; children: TYPE, NAME+
+        SUBROUTINE,         // value: the CONSTRUCTOR|FUNCTION|METHOD keyword;
+                            //  children: TYPE (of the return value), NAME, PARAMETER_LIST, VAR_DEC*, STATEMENTS
+        PARAMETER_LIST,     // children: (TYPE, NAME)*
+        VAR_DEC,            // children: TYPE, NAME+
+        TYPE,               // value: the type (the keywords int|char|boolean|void are interned in lower case)
+        NAME,               // value: the identifier
+        STATEMENTS,         // children: (LET|IF|WHILE|DO|RETURN)*
+        LET,                // children: NAME, EXPRESSION (of the array index, if any), EXPRESSION
+        IF,                 // children: EXPRESSION, STATEMENTS, STATEMENTS (of the else clause, if any)
+        WHILE,              // children: EXPRESSION, STATEMENTS
+        DO,                 // children: CALL|QUALIFIED_CALL
+        RETURN,             // children: EXPRESSION (if any)
+        EXPRESSION,         // children: term, BINARY*
+        BINARY,             // value: the operator character; children: term (the right operand)
+        UNARY,              // value: the operator character; children: term
+        INT_CONST,          // value: the integer
+        STRING_CONST,       // value: the position of the string in the string constants (see string())
+        KEYWORD_CONST,      // value: the TRUE|FALSE|NULL|THIS keyword
+        VARIABLE,           // value: the variable name
+        ARRAY_ELEMENT,      // value: the array variable name; children: EXPRESSION (of the index)
+        CALL,               // value: the subroutine name (of a method of the class); children: EXPRESSION*
+        QUALIFIED_CALL      // value: the subroutine name; children: NAME (of the class or variable), EXPRESSION*
+        // a term is an INT_CONST, STRING_CONST, KEYWORD_CONST, VARIABLE, ARRAY_ELEMENT, CALL, QUALIFIED_CALL,
+        //  UNARY or (parenthesized) EXPRESSION node
+    }
+
+
+
+    //*** Data Members ***//
+
+    // The kind, first child, next sibling, token index and value of every node, indexed by node
+    private int[] kinds;
+    private int[] firstChildren;
+    private int[] nextSiblings;
+    private int[] tokens;
+    private int[] values;
+
+    // The number of nodes in the tree
+    private int size;
+
+    // The characters of all the string constants, and the end of every string in them (indexed by string position)
+    private char[] stringChars;
+    private int[] stringEnds;
+
+    // The number of string constants in the tree
+    private int stringCount;
+
+    // The nodes which are open (being built), from the outermost, and the last child added to each of them so far
+    private int[] openNodes;
+    private int[] lastChildren;
+
+    // The number of open nodes
+    private int depth;
+
+
+    /**
+     * Creates a new empty tree.
+     */
+    SyntaxTree() {
+        this(INITIAL_CAPACITY);
+    }
+
+
+    /**
+     * Creates a new empty tree, with room for the given number of nodes.
+     *
+     * @param capacity the initial number of nodes the tree can hold.
+     */
+    SyntaxTree(int capacity) {
+        capacity = Math.max(capacity, 1);
+        kinds = new int[capacity];
+        firstChildren = new int[capacity];
+        nextSiblings = new int[capacity];
+        tokens = new int[capacity];
+        values = new int[capacity];
+        size = 0;
+
+        stringChars = new char[INITIAL_STRING_CAPACITY];
+        stringEnds = new int[INITIAL_STRING_CAPACITY];
+        stringCount = 0;
+
+        openNodes = new int[INITIAL_DEPTH];
+        lastChildren = new int[INITIAL_DEPTH];
+        depth = 0;
+    }
+
+
+    /**
+     * Adds a node as the last child of the innermost open node (or as the root, if no node is open).
+     *
+     * @return the new node.
+     */
+    private int add(NodeKind kind, int token, int value) {
+
+        if (size == kinds.length) {
+            int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            firstChildren = Arrays.copyOf(firstChildren, capacity);
+            nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+            tokens = Arrays.copyOf(tokens, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        int node = size;
+        kinds[node] = kind.ordinal();
+        firstChildren[node] = NONE;
+        nextSiblings[node] = NONE;
+        tokens[node] = token;
+        values[node] = value;
+        size++;
+
+        if (depth > 0) {
+            if (lastChildren[depth - 1] == NONE) {
+                firstChildren[openNodes[depth - 1]] = node;
+            }
+            else {
+                nextSiblings[lastChildren[depth - 1]] = node;
+            }
+            lastChildren[depth - 1] = node;
+        }
+        return node;
+    }
+
+
+    /**
+     * Starts a node, to which the following nodes are added as children until it is closed.
+     *
+     * @param kind the kind of the node.
+     * @param token the index of the token of the node in the token stream of the input.
+     * @param value the value of the node (see NodeKind).
+     * @return the new node.
+     */
+    int open(NodeKind kind, int token, int value) {
+
+        int node = add(kind, token, value);
+        if (depth == openNodes.length) {
+            openNodes = Arrays.copyOf(openNodes, depth * 2);
+            lastChildren = Arrays.copyOf(lastChildren, depth * 2);
+        }
+        openNodes[depth] = node;
+        lastChildren[depth] = NONE;
+        depth++;
+        return node;
+    }
+
+
+    /**
+     * Ends the innermost open node.
+     */
+    void close() {
+        depth--;
+    }
+
+
+    /**
+     * @return the number of open nodes.
+     */
+    int depth() {
+        return depth;
+    }
+
+
+    /**
+     * Ends the innermost open nodes, down to the given number of open nodes
+     *  (used to drop the nodes left open by an abandoned construct).
+     *
+     * @param depth the number of open nodes to keep (at most the current number).
+     */
+    void closeTo(int depth) {
+        this.depth = depth;
+    }
+
+
+    /**
+     * Adds a node without children.
+     *
+     * @param kind the kind of the node.
+     * @param token the index of the token of the node in the token stream of the input.
+     * @param value the value of the node (see NodeKind).
+     * @return the new node.
+     */
+    int leaf(NodeKind kind, int token, int value) {
+        return add(kind, token, value);
+    }
+
+
+    /**
+     * Adds a string constant node.
+     *
+     * @param token the index of the token of the node in the token stream of the input.
+     * @param string the characters of the string constant.
+     * @return the new node.
+     */
+    int stringLeaf(int token, CharSequence string) {
+
+        int start = stringCount > 0 ? stringEnds[stringCount - 1] : 0;
+        int end = start + string.length();
+        if (end > stringChars.length) {
+            stringChars = Arrays.copyOf(stringChars, Math.max(end, stringChars.length * 2));
+        }
+        if (stringCount == stringEnds.length) {
+            stringEnds = Arrays.copyOf(stringEnds, stringCount * 2);
+        }
+
+        for (int i = 0; i < string.length(); i++) {
+            stringChars[start + i] = string.charAt(i);
+        }
+        stringEnds[stringCount] = end;
+        stringCount++;
+        return add(NodeKind.STRING_CONST, token, stringCount - 1);
+    }
+
+
+    /**
+     * Removes all the nodes of the tree, keeping the arrays for reuse.
+     */
+    void clear() {
+        size = 0;
+        stringCount = 0;
+        depth = 0;
+    }
+
+
+    /**
+     * @return the number of nodes in the tree.
+     */
+    int size() {
+        return size;
+    }
+
+
+    /**
+     * @param node a node of the tree.
+     * @return the kind of the node.
+     */
+    NodeKind kind(int node) {
+        return nodeKinds[kinds[node]];
+    }
+
+
+    /**
+     * @param node a node of the tree.
+     * @return the first child of the node (NONE if it has no children).
+     */
+    int firstChild(int node) {
+        return firstChildren[node];
+    }
+
+
+    /**
+     * @param node a node of the tree.
+     * @return the next sibling of the node (NONE if it is the last child of its parent).
+     */
+    int nextSibling(int node) {
+        return nextSiblings[node];
+    }
+
+
+    /**
+     * @param node a node of the tree.
+     * @return the index of the token of the node in the token stream of the input.
+     */
+    int token(int node) {
+        return tokens[node];
+    }
+
+
+    /**
+     * @param node a node of the tree.
+     * @return the value of the node (see NodeKind).
+     */
+    int value(int node) {
+        return values[node];
+    }
+
+
+    /**
+     * Sets the value of a node (for a node opened before its value was parsed).
+     *
+     * @param node a node of the tree.
+     * @param value the value of the node (see NodeKind).
+     */
+    void setValue(int node, int value) {
+        values[node] = value;
+    }
+
+
+    /**
+     * @param node a STRING_CONST node of the tree.
+     * @return the characters of the string constant (a view of the tree, which must not be modified).
+     */
+    CharSequence string(int node) {
+        int index = values[node];
+        int start = index > 0 ? stringEnds[index - 1] : 0;
+        return CharBuffer.wrap(stringChars, start, stringEnds[index] - start);
+    }
+}
@@ -0,0 +1,401 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+
+/**
+ * A pre-lexed stream of Jack-language tokens, stored as parallel primitive arrays
+ *  (struct of arrays) rather than as an object per token.
+ * For every token the buffer keeps its kind (the ordinal of its JackTokenizer.TokenType),
+ *  its offset and length in the input, and a payload whose meaning depends on the kind:
+ *  the ordinal of a keyword, the character of a symbol, the value of an integer constant,
+ *  the id of an identifier in the identifier pool, or the ordinal of the lexical error of an error token
+ *  (unused for string constants).
+ * The line and column of every token are kept as well, for reporting locations.
+ */
+class TokenBuffer {
+
+
+    // The initial number of tokens the buffer can hold (grown as tokens are added)
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // The smallest number of bytes a serialized token takes (its kind, and a byte per quantity)
+    private static final int MIN_SERIALIZED_TOKEN_SIZE = 5;
+
+    // The largest number of bytes a serialized int takes (as a variable length quantity)
+    private static final int MAX_VAR_INT_SIZE = 5;
+
+    // The number of token types, keywords and lexical errors (the kinds and the ranges of the enumerated payloads)
+    private static final int TOKEN_TYPES = JackTokenizer.TokenType.values().length;
+    private static final int KEYWORDS = JackTokenizer.Keyword.values().length;
+    private static final int LEXICAL_ERRORS = JackTokenizer.LexicalError.values().length;
+
+
+
+    //*** Data Members ***//
+
+    // The kind, input offset, input length, payload, line and column of every token, indexed by token position
+    private int[] kinds;
+    private int[] starts;
+    private int[] lengths;
+    private int[] payloads;
+    private int[] lines;
+    private int[] columns;
+
+    // The number of tokens in the buffer
+    private int size;
+
+
+    /**
+     * Creates a new empty token buffer.
+     */
+    TokenBuffer() {
+        this(INITIAL_CAPACITY);
+    }
+
+
+    /**
+     * Creates a new empty token buffer, with room for the given number of tokens.
+     *
+     * @param capacity the initial number of tokens the buffer can hold.
+     */
+    TokenBuffer(int capacity) {
+        capacity = Math.max(capacity, 1);
+        kinds = new int[capacity];
+        starts = new int[capacity];
+        lengths = new int[capacity];
+        payloads = new int[capacity];
+        lines = new int[capacity];
+        columns = new int[capacity];
+        size = 0;
+    }
+
+
+    /**
+     * Appends a non-negative int to a byte array, as a variable length quantity (7 bits per byte).
+     *
+     * @return the offset following the written bytes.
+     */
+    private static int writeVarInt(byte[] output, int offset, int value) {
+        while ((value & ~0x7F) != 0) {
+            output[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output[offset++] = (byte) value;
+        return offset;
+    }
+
+
+    /**
+     * Reads a variable length quantity written by writeVarInt(), from the position of the given buffer.
+     *
+     * @throws IllegalArgumentException if the quantity is longer than that of any int.
+     * @throws java.nio.BufferUnderflowException if the buffer ends within the quantity.
+     */
+    private static int readVarInt(ByteBuffer input) {
+        int value = 0;
+        for (int i = 0, shift = 0; i < MAX_VAR_INT_SIZE; i++, shift += 7) {
+            byte b = input.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Corrupt serialized token buffer: overlong quantity");
+    }
+
+
+    /**
+     * Serializes the buffer into a compact form: the number of tokens, followed by every token,
+     *  as its kind (a byte) and variable length quantities of its distance from the end of the previous token,
+     *  its length, its payload, its distance in lines from the previous token and its column.
+     * The payloads of identifiers (which are specific to an identifier pool) and of string constants
+     *  aren't serialized.
+     *
+     * @return the serialized form of the buffer.
+     */
+    byte[] serialize() {
+
+        byte[] output = new byte[Integer.BYTES + size * 8];
+        ByteBuffer.wrap(output).putInt(size);
+        int offset = Integer.BYTES;
+        int previousEnd = 0;
+        int previousLine = 0;
+
+        for (int i = 0; i < size; i++) {
+            if (output.length - offset < 6 * 5) {
+                output = Arrays.copyOf(output, output.length * 2);
+            }
+            output[offset++] = (byte) kinds[i];
+            offset = writeVarInt(output, offset, starts[i] - previousEnd);
+            offset = writeVarInt(output, offset, lengths[i]);
+            if (hasSerializedPayload(kinds[i])) {
+                offset = writeVarInt(output, offset, payloads[i]);
+            }
+            offset = writeVarInt(output, offset, lines[i] - previousLine);
+            offset = writeVarInt(output, offset, columns[i]);
+
+            previousEnd = starts[i] + lengths[i];
+            previousLine = lines[i];
+        }
+        return Arrays.copyOf(output, offset);
+    }
+
+
+    /**
+     * Deserializes a buffer serialized by serialize().
+     * The serialized form is checked as it is read, so that a corrupt one is rejected
+     *  rather than turned into tokens which don't make sense.
+     *
+     * @param input the buffer to read from (from its position on, up to its limit, which must end the buffer).
+     * @return the deserialized token buffer.
+     * @throws IllegalArgumentException if the serialized form is corrupt.
+     * @throws java.nio.BufferUnderflowException if the serialized form is truncated.
+     */
+    static TokenBuffer deserialize(ByteBuffer input) {
+
+        int size = input.getInt();
+        if (size < 0 || size > input.remaining() / MIN_SERIALIZED_TOKEN_SIZE) {
+            throw new IllegalArgumentException("Corrupt serialized token buffer: " + size + " tokens");
+        }
+        TokenBuffer buffer = new TokenBuffer(size);
+        int previousEnd = 0;
+        int previousLine = 0;
+
+        for (int i = 0; i < size; i++) {
+            int kind = input.get();
+            if (kind < 0 || kind >= TOKEN_TYPES) {
+                throw new IllegalArgumentException("Corrupt serialized token buffer: token kind " + kind);
+            }
+            int start = previousEnd + readVarInt(input);
+            int length = readVarInt(input);
+            int payload = hasSerializedPayload(kind) ? readVarInt(input) : 0;
+            int line = previousLine + readVarInt(input);
+            int column = readVarInt(input);
+
+            if (start < previousEnd || length < 0 || start + length < start || line < previousLine || column < 0
+                    || kind == JackTokenizer.TokenType.KEYWORD.ordinal() && (payload < 0 || payload >= KEYWORDS)
+                    || kind == JackTokenizer.TokenType.ERROR.ordinal() && (payload < 0 || payload >= LEXICAL_ERRORS)) {
+                throw new IllegalArgumentException("Corrupt serialized token buffer: token " + i);
+            }
+            buffer.add(kind, start, length, payload, line, column);
+
+            previousEnd = start + length;
+            previousLine = line;
+        }
+        if (input.hasRemaining()) {
+            throw new IllegalArgumentException("Corrupt serialized token buffer: trailing bytes");
+        }
+        return buffer;
+    }
+
+
+    /**
+     * @return whether the payload of tokens of the given kind is serialized (see serialize()).
+     */
+    private static boolean hasSerializedPayload(int kind) {
+        return kind != JackTokenizer.TokenType.IDENTIFIER.ordinal()
+                && kind != JackTokenizer.TokenType.STRING_CONST.ordinal();
+    }
+
+
+    /**
+     * Ensures that the buffer can hold the given number of tokens.
+     */
+    private void ensureCapacity(int capacity) {
+
+        if (capacity > kinds.length) {
+            capacity = Math.max(capacity, kinds.length * 2);
+            kinds = Arrays.copyOf(kinds, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            payloads = Arrays.copyOf(payloads, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            columns = Arrays.copyOf(columns, capacity);
+        }
+    }
+
+
+    /**
+     * Appends a token to the end of the buffer.
+     *
+     * @param kind the ordinal of the type of the token.
+     * @param start the offset of the token in the input.
+     * @param length the length of the token in the input.
+     * @param payload the payload of the token (see class description).
+     * @param line the line of the token in the input.
+     * @param column the column of the token in its line.
+     */
+    void add(int kind, int start, int length, int payload, int line, int column) {
+
+        ensureCapacity(size + 1);
+        kinds[size] = kind;
+        starts[size] = start;
+        lengths[size] = length;
+        payloads[size] = payload;
+        lines[size] = line;
+        columns[size] = column;
+        size++;
+    }
+
+
+    /**
+     * Appends all the tokens of another buffer to the end of this buffer.
+     *
+     * @param other the buffer of the tokens to append.
+     */
+    void append(TokenBuffer other) {
+        splice(size, size, other);
+    }
+
+
+    /**
+     * Replaces a range of tokens of this buffer with all the tokens of another buffer.
+     *
+     * @param from the position of the first replaced token.
+     * @param to the position following the last replaced token.
+     * @param replacement the buffer of the tokens replacing the range.
+     */
+    void splice(int from, int to, TokenBuffer replacement) {
+
+        int newSize = size - (to - from) + replacement.size;
+        int tail = size - to;
+        int newTo = from + replacement.size;
+        ensureCapacity(newSize);
+
+        System.arraycopy(kinds, to, kinds, newTo, tail);
+        System.arraycopy(starts, to, starts, newTo, tail);
+        System.arraycopy(lengths, to, lengths, newTo, tail);
+        System.arraycopy(payloads, to, payloads, newTo, tail);
+        System.arraycopy(lines, to, lines, newTo, tail);
+        System.arraycopy(columns, to, columns, newTo, tail);
+
+        System.arraycopy(replacement.kinds, 0, kinds, from, replacement.size);
+        System.arraycopy(replacement.starts, 0, starts, from, replacement.size);
+        System.arraycopy(replacement.lengths, 0, lengths, from, replacement.size);
+        System.arraycopy(replacement.payloads, 0, payloads, from, replacement.size);
+        System.arraycopy(replacement.lines, 0, lines, from, replacement.size);
+        System.arraycopy(replacement.columns, 0, columns, from, replacement.size);
+        size = newSize;
+    }
+
+
+    /**
+     * Moves the tokens from a given position to the end of the buffer, following an edit of the input before them.
+     * The columns are moved only for the tokens on the same line as the first moved token.
+     *
+     * @param from the position of the first moved token.
+     * @param offsetDelta the distance to move the tokens offsets by.
+     * @param lineDelta the distance to move the tokens lines by.
+     * @param columnDelta the distance to move the tokens columns by.
+     */
+    void shift(int from, int offsetDelta, int lineDelta, int columnDelta) {
+
+        int firstLine = from < size ? lines[from] : 0;
+
+        for (int i = from; i < size; i++) {
+            if (columnDelta != 0 && lines[i] == firstLine) {
+                columns[i] += columnDelta;
+            }
+            starts[i] += offsetDelta;
+            lines[i] += lineDelta;
+        }
+    }
+
+
+    /**
+     * Finds the first token which doesn't start before the given offset (by binary search).
+     *
+     * @param offset an offset in the input.
+     * @return the position of the first token starting at the given offset or after it
+     *  (the size of the buffer if there's no such token).
+     */
+    int firstStartingAt(int offset) {
+
+        int low = 0;
+        int high = size;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (starts[middle] < offset) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+
+    /**
+     * Replaces the payload of a token.
+     *
+     * @param index the position of the token in the buffer.
+     * @param payload the new payload of the token (see class description).
+     */
+    void setPayload(int index, int payload) {
+        payloads[index] = payload;
+    }
+
+
+    /**
+     * @return the number of tokens in the buffer.
+     */
+    int size() {
+        return size;
+    }
+
+
+    /**
+     * @param index the position of a token in the buffer.
+     * @return the ordinal of the type of the token.
+     */
+    int kind(int index) {
+        return kinds[index];
+    }
+
+
+    /**
+     * @param index the position of a token in the buffer.
+     * @return the offset of the token in the input.
+     */
+    int start(int index) {
+        return starts[index];
+    }
+
+
+    /**
+     * @param index the position of a token in the buffer.
+     * @return the length of the token in the input.
+     */
+    int length(int index) {
+        return lengths[index];
+    }
+
+
+    /**
+     * @param index the position of a token in the buffer.
+     * @return the payload of the token (see class description).
+     */
+    int payload(int index) {
+        return payloads[index];
+    }
+
+
+    /**
+     * @param index the position of a token in the buffer.
+     * @return the line of the token in the input.
+     */
+    int line(int index) {
+        return lines[index];
+    }
+
+
+    /**
+     * @param index the position of a token in the buffer.
+     * @return the column of the token in its line.
+     */
+    int column(int index) {
+        return columns[index];
+    }
+}
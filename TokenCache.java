@@ -0,0 +1,277 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.CRC32;
+
+
+/**
+ * An on-disk cache of lexed token streams, for skipping the lexing of unchanged files across builds.
+ * Every entry is a file holding the compact serialized form of the TokenBuffer of an input,
+ *  named after the SHA-256 hash of the input content.
+ * An entry which doesn't check out (by its format version, size and checksum) is treated as missing, and replaced.
+ * Loading an entry is a single bulk read of a memory-mapped file.
+ * Once the entries take more than the size cap, the least recently used ones are evicted.
+ * Entries are written to temporary files first, which count toward the size cap as well:
+ *  those left over by an interrupted store are deleted by the eviction.
+ */
+class TokenCache {
+
+
+    // The extension (type) of a cache entry file
+    private static final String ENTRY_EXTENSION = ".tokens";
+
+    // The extension of a temporary file, which an entry is written to before being moved into place
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+
+    // The age (in milliseconds) beyond which a temporary file is known to be left over by an interrupted store,
+    // rather than being written (writing an entry takes far less)
+    private static final long STALE_TEMPORARY_AGE = 60 * 60 * 1000;
+
+    // Identifies cache entry files, and the version of their format and of the lexer that produced them
+    // (to be bumped whenever either changes, so that older entries are ignored)
+    private static final int MAGIC = 0x4A544B04;
+
+    // The size of an entry header (magic number, and the size and the CRC-32 checksum of the serialized tokens
+    // which follow it)
+    private static final int HEADER_SIZE = 3 * Integer.BYTES;
+
+    // The part of the size cap which eviction frees (so that the entries aren't listed again on the next store)
+    private static final int EVICTION_SLACK_DIVISOR = 10;
+
+
+    //*** Data Members ***//
+
+    // The directory of the cache entries
+    private File directory;
+
+    // The maximal total size (in bytes) of the cache entries
+    private long maxSize;
+
+    // The total size (in bytes) of the cache entries, kept up to date by store() and the deletions,
+    // so that the entries are only listed when some are to be evicted
+    private long totalSize;
+
+
+    /**
+     * Creates a cache in the given directory (creating the directory if needed).
+     *
+     * @param directory the directory of the cache entries.
+     * @param maxSize the maximal total size (in bytes) of the cache entries.
+     * @throws IOException in case of a problem creating the directory.
+     */
+    TokenCache(File directory, long maxSize) throws IOException {
+        Files.createDirectories(directory.toPath());
+        this.directory = directory;
+        this.maxSize = maxSize;
+
+        for (File entry : listEntries()) {
+            totalSize += entry.length();
+        }
+    }
+
+
+    /**
+     * @return the entry files of the cache, including the temporary ones (see isTemporary()).
+     */
+    private File[] listEntries() {
+        File[] entries = directory.listFiles(pathname -> pathname.isFile()
+                && (pathname.getName().endsWith(ENTRY_EXTENSION) || isTemporary(pathname)));
+        return entries != null ? entries : new File[0];
+    }
+
+
+    /**
+     * @return whether the given entry file is a temporary file, which an entry is being written to
+     *  (or was, by an interrupted store()).
+     */
+    private static boolean isTemporary(File entry) {
+        return entry.getName().endsWith(TEMPORARY_EXTENSION);
+    }
+
+
+    /**
+     * Computes the cache key of an input: the hexadecimal SHA-256 hash of its content.
+     *
+     * @param input the content of the input (from offset 0 to its limit).
+     * @return the cache key of the input.
+     */
+    String keyOf(ByteBuffer input) {
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every Java platform supports SHA-256
+        }
+
+        ByteBuffer content = input.duplicate();
+        content.position(0);
+        digest.update(content);
+
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return key.toString();
+    }
+
+
+    /**
+     * Loads the token stream of an input from the cache, and marks the entry as recently used.
+     * An entry which is corrupt (truncated, for example) or of another format version is deleted,
+     *  and the input is then treated as not cached.
+     *
+     * @param key the cache key of the input.
+     * @return the cached tokens of the input (without the identifier payloads, which are to be re-interned),
+     *  or null if the input isn't cached.
+     * @throws IOException in case of a problem reading the entry.
+     */
+    TokenBuffer load(String key) throws IOException {
+
+        File entry = new File(directory, key + ENTRY_EXTENSION);
+        if (!entry.isFile()) {
+            return null;
+        }
+
+        TokenBuffer tokens = null;
+        try (FileChannel channel = FileChannel.open(entry.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer content = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (content.limit() >= HEADER_SIZE && content.getInt() == MAGIC
+                    && content.getInt() == content.limit() - HEADER_SIZE) {
+                int checksum = content.getInt();
+                if (checksum == checksumOf(content.duplicate())) {
+                    tokens = TokenBuffer.deserialize(content);
+                }
+            }
+        }
+        catch (BufferUnderflowException | IllegalArgumentException e) {
+            tokens = null; // a corrupt entry
+        }
+
+        if (tokens == null) {
+            discard(entry);
+            return null;
+        }
+
+        if (!entry.setLastModified(System.currentTimeMillis())) {
+            System.err.println("Can't mark the token cache entry " + entry.getName() + " as used");
+        }
+        return tokens;
+    }
+
+
+    /**
+     * Stores the token stream of an input in the cache, and evicts the least recently used entries
+     *  if the cache grows beyond its size cap.
+     *
+     * @param key the cache key of the input.
+     * @param tokens the tokens of the whole input.
+     * @throws IOException in case of a problem writing the entry.
+     */
+    void store(String key, TokenBuffer tokens) throws IOException {
+
+        byte[] serialized = tokens.serialize();
+        ByteBuffer content = ByteBuffer.allocate(HEADER_SIZE + serialized.length);
+        content.putInt(MAGIC);
+        content.putInt(serialized.length);
+        content.putInt(checksumOf(ByteBuffer.wrap(serialized)));
+        content.put(serialized);
+        content.flip();
+
+        // the entry is written aside and then moved into place, so that it's never seen half written
+        File temporary = File.createTempFile(key, TEMPORARY_EXTENSION, directory);
+        File entry = new File(directory, key + ENTRY_EXTENSION);
+        long replacedSize;
+        try {
+            try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.WRITE)) {
+                while (content.hasRemaining()) {
+                    channel.write(content);
+                }
+            }
+            replacedSize = entry.length(); // 0 if there's no entry to replace
+            Files.move(temporary.toPath(), entry.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            if (!temporary.delete()) {
+                System.err.println("Can't delete the temporary token cache file " + temporary.getName());
+            }
+            throw e;
+        }
+
+        totalSize += content.limit() - replacedSize;
+        if (totalSize > maxSize) {
+            evict();
+        }
+    }
+
+
+    /**
+     * @return the CRC-32 checksum of the remaining bytes of the given buffer (which are consumed).
+     */
+    private static int checksumOf(ByteBuffer bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+
+    /**
+     * Deletes an entry which can't be used (it is replaced by the next store() of its input).
+     *
+     * @param entry the entry file.
+     */
+    private void discard(File entry) {
+        long size = entry.length();
+        if (entry.delete()) {
+            totalSize -= size;
+        }
+        else {
+            System.err.println("Can't delete the unusable token cache entry " + entry.getName());
+        }
+    }
+
+
+    /**
+     * Deletes the least recently used entries, until the total size of the entries is a little below the size cap
+     *  (by a tenth of the cap, so that a cache kept at its cap isn't listed on every store).
+     * Temporary files left over by an interrupted store() are deleted whatever the total size,
+     *  while those which may still be written are left to their store().
+     * The total size is recounted from the listed entries (in case the cache directory is shared).
+     */
+    private void evict() {
+
+        long now = System.currentTimeMillis();
+        File[] entries = listEntries();
+        long[] sizes = new long[entries.length];
+        long[] lastUses = new long[entries.length];
+        Integer[] order = new Integer[entries.length];
+        totalSize = 0;
+        for (int i = 0; i < entries.length; i++) {
+            sizes[i] = entries[i].length();
+            lastUses[i] = entries[i].lastModified();
+            order[i] = i;
+            totalSize += sizes[i];
+        }
+
+        long targetSize = maxSize - maxSize / EVICTION_SLACK_DIVISOR;
+        Arrays.sort(order, Comparator.comparingLong(i -> lastUses[i]));
+        for (int i : order) {
+            boolean evicted = isTemporary(entries[i]) ? now - lastUses[i] > STALE_TEMPORARY_AGE
+                                                      : totalSize > targetSize;
+            if (evicted && entries[i].delete()) {
+                totalSize -= sizes[i];
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.Writer;
 
 
 /**
@@ -9,17 +10,131 @@ import java.io.PrintWriter;
 class VMWriter {
     
     
+    // The initial number of slots in the qualified names cache (must be a power of 2)
+    private static final int INITIAL_CACHE_CAPACITY = 256;
+
+    // The number of chars of the longest int, "-2147483648"
+    private static final int MAX_INT_LENGTH = 11;
+
+
     // writer object for the output file
     private PrintWriter writer;
+
+    // The pool of the identifiers referenced by the written commands
+    private IdentifierPool identifiers;
+
+    // Open addressing cache of "Class.subroutine" names, keyed by the pair of their identifier ids
+    private long[] qualifiedKeys;
+    private String[] qualifiedNames;
+
+    // The number of cached qualified names
+    private int qualifiedCount;
+
+    // The buffer an int is formatted into before it is printed (see printInt())
+    private char[] digits;
     
     
     /**
      * Creates a new writer, and prepares for writing the output.
      *
      * @param output the output .vm file to write into.
+     * @param identifiers the pool of the identifiers referenced by the written commands.
      */
-    VMWriter(File output) throws IOException {
+    VMWriter(File output, IdentifierPool identifiers) throws IOException {
+        this(new PrintWriter(output), identifiers);
+    }
+
+
+    /**
+     * Creates a new writer into a character stream (for example, for generating the code in memory).
+     *
+     * @param output the stream to write into.
+     * @param identifiers the pool of the identifiers referenced by the written commands.
+     */
+    VMWriter(Writer output, IdentifierPool identifiers) {
         writer = new PrintWriter(output);
+        this.identifiers = identifiers;
+        qualifiedKeys = new long[INITIAL_CACHE_CAPACITY];
+        qualifiedNames = new String[INITIAL_CACHE_CAPACITY];
+        digits = new char[MAX_INT_LENGTH];
+    }
+
+
+    /**
+     * Prints an int in decimal, without creating a String for it.
+     *
+     * @param value the int to print.
+     */
+    private void printInt(int value) {
+
+        // the digits are computed on the negative value, which covers Integer.MIN_VALUE as well
+        int start = MAX_INT_LENGTH;
+        int negative = value < 0 ? value : -value;
+        do {
+            digits[--start] = (char) ('0' - negative % 10);
+            negative /= 10;
+        } while (negative != 0);
+        if (value < 0) {
+            digits[--start] = '-';
+        }
+        writer.write(digits, start, MAX_INT_LENGTH - start);
+    }
+
+
+    /**
+     * Returns the qualified name "Class.subroutine" of a subroutine,
+     *  creating it only the first time the pair is met.
+     *
+     * @param classId the id of the class name.
+     * @param subroutineId the id of the subroutine name.
+     * @return the qualified name of the subroutine.
+     */
+    private String qualifiedName(int classId, int subroutineId) {
+
+        long key = ((long) classId << 32) | subroutineId;
+        int mask = qualifiedKeys.length - 1;
+        int slot = Long.hashCode(key * 0x9E3779B97F4A7C15L) & mask;
+
+        while (qualifiedNames[slot] != null) {
+            if (qualifiedKeys[slot] == key) {
+                return qualifiedNames[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        String name = identifiers.name(classId) + "." + identifiers.name(subroutineId);
+        qualifiedKeys[slot] = key;
+        qualifiedNames[slot] = name;
+        qualifiedCount++;
+
+        if (qualifiedCount * 2 > qualifiedKeys.length) {
+            growCache();
+        }
+        return name;
+    }
+
+
+    /**
+     * Doubles the number of slots in the qualified names cache, and re-inserts the cached names.
+     */
+    private void growCache() {
+
+        long[] keys = qualifiedKeys;
+        String[] names = qualifiedNames;
+        qualifiedKeys = new long[keys.length * 2];
+        qualifiedNames = new String[names.length * 2];
+        int mask = qualifiedKeys.length - 1;
+
+        for (int i = 0; i < keys.length; i++) {
+            if (names[i] != null) {
+                int slot = Long.hashCode(keys[i] * 0x9E3779B97F4A7C15L) & mask;
+                while (qualifiedNames[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                qualifiedKeys[slot] = keys[i];
+                qualifiedNames[slot] = names[i];
+            }
+        }
     }
     
     
@@ -28,15 +143,14 @@ class VMWriter {
      */
     enum Segment {
         CONST, ARG, LOCAL, STATIC, THIS, THAT, POINTER, TEMP;
-    
+
+        // The names of the segments in the VM command syntax, indexed by their ordinals
+        private static final String[] names = {"constant", "argument", "local", "static",
+                                               "this", "that", "pointer", "temp"};
+
         @Override
         public String toString() {
-            switch (this) {
-                case CONST: return "constant";
-                case ARG: return "argument";
-                case STATIC:
-                default: return this.name().toLowerCase();
-            }
+            return names[ordinal()];
         }
     }
     
@@ -48,7 +162,11 @@ class VMWriter {
      * @param index the index of the data to push.
      */
     void writePush(Segment segment, int index) {
-        writer.println("push " + segment.toString() + " " + Integer.toString(index));
+        writer.print("push ");
+        writer.print(segment.toString());
+        writer.print(' ');
+        printInt(index);
+        writer.println();
     }
     
     
@@ -59,14 +177,28 @@ class VMWriter {
      * @param index the index (in the segment) to pop into.
      */
     void writePop(Segment segment, int index) {
-        writer.println("pop " + segment.toString() + " " + Integer.toString(index));
+        writer.print("pop ");
+        writer.print(segment.toString());
+        writer.print(' ');
+        printInt(index);
+        writer.println();
     }
     
     
     /**
      * Represents a VM arithmetic command.
      */
-    enum Command {ADD, SUB, NEG, EQ, GT, LT, AND, OR, NOT}
+    enum Command {
+        ADD, SUB, NEG, EQ, GT, LT, AND, OR, NOT;
+
+        // The names of the commands in the VM command syntax, indexed by their ordinals
+        private static final String[] names = {"add", "sub", "neg", "eq", "gt", "lt", "and", "or", "not"};
+
+        @Override
+        public String toString() {
+            return names[ordinal()];
+        }
+    }
     
     
     /**
@@ -75,7 +207,7 @@ class VMWriter {
      * @param command Command constant corresponding to the desired VM command.
      */
     void writeArithmetic(Command command) {
-        writer.println(command.toString().toLowerCase());
+        writer.println(command.toString());
     }
     
     
@@ -116,18 +248,39 @@ class VMWriter {
      * @param nArgs the number of arguments received by the called function.
      */
     void writeCall(String name, int nArgs) {
-        writer.println("call " + name + " " + Integer.toString(nArgs));
+        writer.print("call ");
+        writer.print(name);
+        writer.print(' ');
+        printInt(nArgs);
+        writer.println();
+    }
+
+
+    /**
+     * Writes a VM call command of a subroutine given by identifier ids.
+     *
+     * @param classId the id of the name of the class of the called function.
+     * @param subroutineId the id of the name of the called function.
+     * @param nArgs the number of arguments received by the called function.
+     */
+    void writeCall(int classId, int subroutineId, int nArgs) {
+        writeCall(qualifiedName(classId, subroutineId), nArgs);
     }
     
     
     /**
      * Writes a VM function command.
      *
-     * @param name the name of the currently defined function.
+     * @param classId the id of the name of the class of the currently defined function.
+     * @param subroutineId the id of the name of the currently defined function.
      * @param nLocals the number of local variables declared in the function.
      */
-    void writeFunction(String name, int nLocals) {
-        writer.println("function " + name + " " + Integer.toString(nLocals));
+    void writeFunction(int classId, int subroutineId, int nLocals) {
+        writer.print("function ");
+        writer.print(qualifiedName(classId, subroutineId));
+        writer.print(' ');
+        printInt(nLocals);
+        writer.println();
     }
     
     
@@ -139,6 +292,16 @@ class VMWriter {
     }
     
     
+    /**
+     * Writes VM code generated elsewhere (for example, by another writer into memory) as is.
+     *
+     * @param code the VM code, made of whole lines.
+     */
+    void writeCode(String code) {
+        writer.print(code);
+    }
+    
+    
     /**
      * Closes the writer.
      */
@@ -0,0 +1,132 @@
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Checks that skipping comments allocates nothing per comment.
+ *
+ * Lexes pairs of inputs which differ only in the number of comments between their tokens
+ *  (one pair of inputs with one-line comments, and one with block comments spanning several lines),
+ *  and measures the bytes allocated by the lexing, with both the word scanner and the byte scanner
+ *  (see JackTokenizer.setWordScanning()).
+ * The fixed costs of lexing are the same for both inputs of a pair, so the difference between the two,
+ *  divided by the difference in comments, is the allocation per comment.
+ *
+ * Usage: java CommentAllocationCheck
+ * Exits with status 1 if any bytes are allocated per comment of either kind.
+ */
+public class CommentAllocationCheck {
+
+
+    // The number of comments in the smaller input of a pair (the larger input has twice as many)
+    private static final int COMMENTS = 20000;
+
+    // The number of tokens of every input (between which the comments are spread)
+    private static final int TOKENS = 1000;
+
+    // The number of unmeasured warm-up lexings of each input
+    private static final int WARMUP_ITERATIONS = 20;
+
+    // The comments of the two kinds
+    private static final String LINE_COMMENT = "    // a line comment, with \"quotes\" and /* delimiters */\n";
+    private static final String BLOCK_COMMENT = "    /** a block comment,\n     *  spanning // three lines\n     */\n";
+
+
+    //*** Data Members ***//
+
+    // The pool of the identifiers of the lexed inputs
+    private final IdentifierPool identifiers = new IdentifierPool();
+
+
+    /**
+     * Creates an input with the given number of comments, spread evenly between its tokens.
+     */
+    private static byte[] inputWithComments(String comment, int comments) {
+
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < TOKENS; i++) {
+            source.append(i % 2 == 0 ? "x\n" : "+\n");
+            for (int j = comments * i / TOKENS; j < comments * (i + 1) / TOKENS; j++) {
+                source.append(comment);
+            }
+        }
+        return source.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * @return the number of bytes allocated so far by the current thread.
+     */
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+
+    /**
+     * Lexes an input, and measures the bytes allocated by advancing over its tokens and comments
+     *  (but not by creating the tokenizer).
+     *
+     * @param input the jack code to lex.
+     * @return the number of bytes allocated.
+     */
+    private long lex(byte[] input) {
+
+        JackTokenizer tokenizer = JackTokenizer.fromSource(input, identifiers);
+
+        long startBytes = allocatedBytes();
+        while (tokenizer.tokenType() != null) {
+            tokenizer.advance();
+        }
+        return allocatedBytes() - startBytes;
+    }
+
+
+    /**
+     * Measures the allocation per comment of the given kind, with the current scanner, and prints it.
+     *
+     * @param scanner the name of the current scanner.
+     * @param kind the name of the kind of comment.
+     * @param comment the text of a comment of the kind.
+     * @return whether no bytes are allocated per comment.
+     */
+    private boolean check(String scanner, String kind, String comment) {
+
+        byte[] smaller = inputWithComments(comment, COMMENTS);
+        byte[] larger = inputWithComments(comment, 2 * COMMENTS);
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            lex(larger);
+            lex(smaller);
+        }
+
+        long difference = lex(larger) - lex(smaller);
+        System.out.printf("%s scanner: %.3f bytes allocated per %s comment%n", scanner,
+                          (double) difference / COMMENTS, kind);
+        return difference <= 0;
+    }
+
+
+    /**
+     * Runs the check.
+     *
+     * @param args unused.
+     */
+    public static void main(String[] args) {
+
+        CommentAllocationCheck check = new CommentAllocationCheck();
+        boolean passed = true;
+
+        for (boolean wordScanning : new boolean[] {true, false}) {
+            JackTokenizer.setWordScanning(wordScanning);
+            String scanner = wordScanning ? "word" : "byte";
+            passed &= check.check(scanner, "line", LINE_COMMENT);
+            passed &= check.check(scanner, "block", BLOCK_COMMENT);
+        }
+
+        if (!passed) {
+            System.out.println("FAILED: skipping comments allocates");
+            System.exit(1);
+        }
+    }
+}
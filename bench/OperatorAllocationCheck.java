@@ -0,0 +1,123 @@
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+
+
+/**
+ * Checks that compiling expressions allocates nothing per binary operator.
+ *
+ * Compiles two classes, which differ only in the number of binary operators in their expressions
+ *  (every operator comes with a term, which is alternately a variable, an array element and a call):
+ *  parses them into a reused syntax tree, generates their code by a reused code generator (and so into
+ *  its reused control flow graph) through a reused VMWriter which discards it, and measures the bytes
+ *  allocated by the parsing and the generation.
+ * The fixed costs of a compilation are the same for both classes, so the difference between the two,
+ *  divided by the difference in operators, is the allocation per operator.
+ *
+ * Usage: java OperatorAllocationCheck
+ * Exits with status 1 if any bytes are allocated per operator.
+ */
+public class OperatorAllocationCheck {
+
+
+    // The number of operators in the expressions of the smaller class (the larger class has twice as many)
+    private static final int OPERATORS = 20000;
+
+    // The number of operators per expression
+    private static final int OPERATORS_PER_EXPRESSION = 100;
+
+    // The number of unmeasured warm-up compilations of each class
+    private static final int WARMUP_ITERATIONS = 20;
+
+    // The binary operators, and the terms they are applied to, in turn
+    private static final String OPERATORS_TEXT = "+-*/&|<>=";
+    private static final String[] terms = {"x", "a[x]", "f(x)"};
+
+
+    //*** Data Members ***//
+
+    // The pool of the identifiers of the parsed classes
+    private final IdentifierPool identifiers = new IdentifierPool();
+
+    // The tree every class is parsed into (reused, so that its growth isn't measured)
+    private final SyntaxTree tree = new SyntaxTree();
+
+    // The writer of the generated code, which discards it
+    private final VMWriter writer = new VMWriter(Writer.nullWriter(), identifiers);
+
+    // Generates the code of every class from the tree (reused, so that the growth of its control flow graph
+    //  isn't measured; the classes have no class variables, so its symbol table holds no class scope to reset)
+    private final CodeGenerator generator = new CodeGenerator(tree, writer, new SymbolTable(), identifiers);
+
+
+    /**
+     * Creates a class with expressions holding the given number of binary operators.
+     */
+    private static String classWithOperators(int operators) {
+
+        StringBuilder source = new StringBuilder("class Check {\n    function int f(int x) {\n        var Array a;\n");
+        for (int i = 0; i < operators; ) {
+            source.append("        let x = x");
+            for (int j = 0; j < OPERATORS_PER_EXPRESSION; j++, i++) {
+                source.append(' ').append(OPERATORS_TEXT.charAt(i % OPERATORS_TEXT.length()))
+                      .append(' ').append(terms[i % terms.length]);
+            }
+            source.append(";\n");
+        }
+        return source.append("        return x;\n    }\n}\n").toString();
+    }
+
+
+    /**
+     * @return the number of bytes allocated so far by the current thread.
+     */
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+
+    /**
+     * Compiles a class, and measures the bytes allocated by the parsing and the code generation
+     *  (but not by the lexing).
+     *
+     * @param source the jack code of the class.
+     * @return the number of bytes allocated.
+     */
+    private long compile(String source) {
+
+        JackTokenizer tokenizer = JackTokenizer.fromSource(source, identifiers);
+        tokenizer.bufferTokens();
+
+        long startBytes = allocatedBytes();
+        new CompilationEngine(tokenizer, identifiers, tree).compileClass();
+        generator.generateClass();
+        return allocatedBytes() - startBytes;
+    }
+
+
+    /**
+     * Runs the check.
+     *
+     * @param args unused.
+     */
+    public static void main(String[] args) {
+
+        OperatorAllocationCheck check = new OperatorAllocationCheck();
+        String smaller = classWithOperators(OPERATORS);
+        String larger = classWithOperators(2 * OPERATORS);
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            check.compile(larger);
+            check.compile(smaller);
+        }
+
+        long difference = check.compile(larger) - check.compile(smaller);
+        double perOperator = (double) difference / OPERATORS;
+        System.out.printf("%.3f bytes allocated per binary operator%n", perOperator);
+
+        if (difference > 0) {
+            System.out.println("FAILED: compiling binary operators allocates");
+            System.exit(1);
+        }
+    }
+}
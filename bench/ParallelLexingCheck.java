@@ -0,0 +1,303 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+
+/**
+ * Checks that parallel lexing (JackTokenizer.bufferTokens(ForkJoinPool)) produces the same tokens
+ *  as sequential lexing.
+ *
+ * Generates random inputs made of many short lines, full of the constructs a chunk boundary must not split:
+ *  multi-line comments, one-line comments holding quotes and comment delimiters, string constants holding
+ *  comment delimiters, unterminated string constants, unterminated comments, and CRLF line breaks.
+ * The minimal chunk size is forced down to a few bytes, so that these inputs are split after almost every line,
+ *  and every input is lexed by pools of several sizes, from its first token and from a later one.
+ * The type, value, identifier id, line and column of every token are compared against those of sequential lexing.
+ *
+ * Usage: java ParallelLexingCheck [inputs [seed]]
+ * Exits with status 1 if any token differs.
+ */
+public class ParallelLexingCheck {
+
+
+    // The default number of generated inputs, and the default seed of the first one
+    private static final int DEFAULT_INPUTS = 300;
+    private static final long DEFAULT_SEED = 1;
+
+    // The largest number of lines of a generated input, and of pieces (tokens, comments, ...) on a line
+    private static final int MAX_LINES = 300;
+    private static final int MAX_PIECES_PER_LINE = 6;
+
+    // The minimal chunk sizes the inputs are lexed with, in bytes
+    private static final int[] MIN_CHUNK_SIZES = {1, 16};
+
+    // The numbers of workers of the pools the inputs are lexed by
+    private static final int[] PARALLELISMS = {2, 7, 64};
+
+    // The largest number of tokens lexed sequentially before an input is lexed in parallel
+    private static final int MAX_SKIPPED_TOKENS = 5;
+
+    // The number of differing tokens reported (the check goes on, but only counts the rest)
+    private static final int MAX_REPORTED_DIFFERENCES = 10;
+
+    // The pieces which generated lines are made of
+    private static final String[] words = {"class", "function", "var", "let", "do", "if", "else", "while", "return",
+                                           "this", "null", "true", "x", "count", "Main", "_tmp1", "a1b2"};
+    private static final String[] integers = {"0", "7", "32767", "32768", "99999"};
+    private static final String SYMBOLS = "{}()[].,;+-*/&|<>=~";
+    private static final String[] strings = {"\"\"", "\"text\"", "\"// not a comment\"", "\"/* not a comment */\"",
+                                             "\"*/\"", "\"caf\u00e9\""};
+    private static final String[] comments = {"// a \"quote", "// /* not opened", "//", "/* \" */", "/**/", "/*/ */",
+                                              "/** doc \"x\" */", "/* // */"};
+    private static final String[] invalid = {"@", "#", "$", "\u00e9", "\\"};
+
+
+    //*** Data Members ***//
+
+    // The generator of the inputs
+    private final Random random;
+
+    // The number of compared lexings, and of those whose tokens differ
+    private int lexings;
+    private int failures;
+
+    // The number of differing tokens reported so far
+    private int reported;
+
+
+    /**
+     * Creates a new check.
+     *
+     * @param seed the seed of the generator of the inputs.
+     */
+    private ParallelLexingCheck(long seed) {
+        random = new Random(seed);
+    }
+
+
+    /**
+     * Generates a random input.
+     * Some pieces are left open at the end of a line (a string constant) or across lines (a comment),
+     *  and the input may end within a comment.
+     */
+    private byte[] generateInput() {
+
+        StringBuilder source = new StringBuilder();
+        String lineBreak = random.nextBoolean() ? "\n" : "\r\n";
+        int lines = random.nextInt(MAX_LINES + 1);
+
+        for (int line = 0; line < lines; line++) {
+            int pieces = random.nextInt(MAX_PIECES_PER_LINE + 1);
+            for (int piece = 0; piece < pieces; piece++) {
+                appendPiece(source, lineBreak);
+                if (random.nextInt(3) > 0) {
+                    source.append(' ');
+                }
+            }
+            source.append(lineBreak);
+        }
+
+        switch (random.nextInt(6)) {
+            case 0:
+                source.append("/* unterminated");
+                break;
+            case 1:
+                source.append("\"unterminated");
+                break;
+            case 2:
+                source.append("// no line break at the end");
+                break;
+            default:
+                break;
+        }
+        return source.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * Appends a random piece of code to the given input.
+     */
+    private void appendPiece(StringBuilder source, String lineBreak) {
+
+        switch (random.nextInt(10)) {
+            case 0:
+            case 1:
+            case 2:
+                source.append(pick(words));
+                break;
+            case 3:
+                source.append(pick(integers));
+                break;
+            case 4:
+                source.append(SYMBOLS.charAt(random.nextInt(SYMBOLS.length())));
+                break;
+            case 5:
+                source.append(pick(strings));
+                break;
+            case 6:
+                source.append("\"open ").append(pick(comments)); // an unterminated string, up to the line break
+                source.append(lineBreak);
+                break;
+            case 7:
+                String comment = pick(comments);
+                source.append(comment);
+                if (comment.startsWith("//")) {
+                    source.append(lineBreak); // a one-line comment, ended by the line break
+                }
+                break;
+            case 8:
+                source.append("/* spans");
+                for (int i = random.nextInt(4); i > 0; i--) {
+                    source.append(lineBreak).append(random.nextBoolean() ? pick(strings) : "\" ").append(pick(words));
+                }
+                source.append(random.nextBoolean() ? " */" : lineBreak + "*/");
+                break;
+            default:
+                source.append(pick(invalid));
+                break;
+        }
+    }
+
+
+    /**
+     * @return a random element of the given pieces.
+     */
+    private String pick(String[] pieces) {
+        return pieces[random.nextInt(pieces.length)];
+    }
+
+
+    /**
+     * Describes the current token of a tokenizer: its type, value, location, and the id of an identifier.
+     */
+    private static String describe(JackTokenizer tokenizer) {
+
+        String value;
+        switch (tokenizer.tokenType()) {
+            case KEYWORD:
+                value = tokenizer.keyword().name();
+                break;
+            case SYMBOL:
+                value = String.valueOf(tokenizer.symbol());
+                break;
+            case IDENTIFIER:
+                value = tokenizer.identifier() + " #" + tokenizer.identifierId();
+                break;
+            case INT_CONST:
+                value = String.valueOf(tokenizer.intVal());
+                break;
+            case STRING_CONST:
+                value = '"' + tokenizer.stringVal() + '"';
+                break;
+            default:
+                value = tokenizer.lexicalError().name();
+                break;
+        }
+        return tokenizer.tokenType().name() + " " + value + " at " + tokenizer.line() + ":" + tokenizer.column();
+    }
+
+
+    /**
+     * Lexes an input, either sequentially or by the given pool after a few tokens lexed sequentially.
+     *
+     * @param input the input to lex.
+     * @param pool the pool lexing the input in parallel (null to lex it sequentially).
+     * @param skipped the number of tokens lexed sequentially before the rest is lexed by the pool.
+     * @return the descriptions of the tokens of the input (see describe()), in order.
+     */
+    private static List<String> lex(byte[] input, ForkJoinPool pool, int skipped) {
+
+        JackTokenizer tokenizer = JackTokenizer.fromSource(input, new IdentifierPool());
+        List<String> tokens = new ArrayList<>();
+
+        for (int i = 0; i < skipped && tokenizer.tokenType() != null; i++) {
+            tokens.add(describe(tokenizer));
+            tokenizer.advance();
+        }
+        if (pool != null) {
+            tokenizer.bufferTokens(pool);
+        }
+        while (tokenizer.tokenType() != null) {
+            tokens.add(describe(tokenizer));
+            tokenizer.advance();
+        }
+        return tokens;
+    }
+
+
+    /**
+     * Lexes an input in parallel, and compares its tokens against those of sequential lexing.
+     *
+     * @param input the input to lex.
+     * @param expected the descriptions of the tokens of sequential lexing.
+     * @param pool the pool lexing the input.
+     * @param skipped the number of tokens lexed sequentially first.
+     * @param setting a description of the input and the lexing, for reporting a difference.
+     */
+    private void compare(byte[] input, List<String> expected, ForkJoinPool pool, int skipped, String setting) {
+
+        List<String> actual = lex(input, pool, skipped);
+        lexings++;
+
+        int index = 0;
+        while (index < expected.size() && index < actual.size() && expected.get(index).equals(actual.get(index))) {
+            index++;
+        }
+        if (index == expected.size() && index == actual.size()) {
+            return;
+        }
+
+        failures++;
+        if (reported++ < MAX_REPORTED_DIFFERENCES) {
+            System.out.println(setting + ": token " + index + " differs:");
+            System.out.println("  sequential: " + (index < expected.size() ? expected.get(index) : "the end of the input"));
+            System.out.println("  parallel:   " + (index < actual.size() ? actual.get(index) : "the end of the input"));
+        }
+    }
+
+
+    /**
+     * Runs the check.
+     *
+     * @param args the number of inputs to generate, and the seed of the generator (both optional).
+     */
+    public static void main(String[] args) {
+
+        int inputs = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_INPUTS;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_SEED;
+        ParallelLexingCheck check = new ParallelLexingCheck(seed);
+
+        ForkJoinPool[] pools = new ForkJoinPool[PARALLELISMS.length];
+        for (int i = 0; i < pools.length; i++) {
+            pools[i] = new ForkJoinPool(PARALLELISMS[i]);
+        }
+
+        for (int n = 0; n < inputs; n++) {
+            byte[] input = check.generateInput();
+            List<String> expected = lex(input, null, 0);
+            int skipped = check.random.nextInt(MAX_SKIPPED_TOKENS + 1);
+
+            for (int minChunkSize : MIN_CHUNK_SIZES) {
+                JackTokenizer.setMinChunkSize(minChunkSize);
+                for (ForkJoinPool pool : pools) {
+                    String setting = "input " + n + " (seed " + seed + ", " + input.length + " bytes), chunks of "
+                            + minChunkSize + "+ bytes, " + pool.getParallelism() + " workers";
+                    check.compare(input, expected, pool, 0, setting);
+                    check.compare(input, expected, pool, skipped, setting + ", after " + skipped + " tokens");
+                }
+            }
+        }
+        for (ForkJoinPool pool : pools) {
+            pool.shutdown();
+        }
+
+        System.out.println(check.lexings + " parallel lexings of " + inputs + " inputs compared, "
+                           + check.failures + " differ");
+        if (check.failures > 0) {
+            System.out.println("FAILED: parallel lexing differs from sequential lexing");
+            System.exit(1);
+        }
+    }
+}
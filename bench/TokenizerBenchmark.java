@@ -0,0 +1,327 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * A throughput and allocation benchmark of the JackTokenizer.
+ *
+ * Tokenizes a set of synthetic, representative inputs (held in memory), and measures for each one
+ *  the tokens per second, megabytes per second and bytes allocated per token.
+ * Every input is tokenized with both scanners: scanning a word (8 bytes) at a time, and byte by byte
+ *  (see JackTokenizer.setWordScanning()), and the speedup of word scanning is reported.
+ * It is also tokenized with keywords matched by a regular expression instead of looked up in a perfect hash table
+ *  (see JackTokenizer.setKeywordHashing()), and the speedup of hashing is reported,
+ *  and without tracking the lines and columns of the tokens (see JackTokenizer.setLocationTracking()),
+ *  and the share of the throughput which tracking costs is reported.
+ * The results are written as JSON (one benchmark per line), to the given file or else to the standard output,
+ *  and may be compared against the results of a previous run, stored as a baseline.
+ * The speedups and the comparison are reported on the standard error, so that the standard output holds
+ *  only the JSON results.
+ *
+ * Usage: java TokenizerBenchmark [-o results.json] [-b baseline.json]
+ */
+public class TokenizerBenchmark {
+
+
+    // The number of unmeasured warm-up iterations, and of measured iterations, of every benchmark
+    private static final int WARMUP_ITERATIONS = 10;
+    private static final int MEASURED_ITERATIONS = 10;
+
+    // The size of the synthetic large class input
+    private static final int LARGE_INPUT_SIZE = 10 << 20;
+
+    // The size of the other inputs
+    private static final int INPUT_SIZE = 1 << 20;
+
+    // The depth of the deeply nested expressions
+    private static final int NESTING_DEPTH = 64;
+
+    // The variants of the tokenizer every input is tokenized with: the two scanners,
+    // and the word scanner with keywords matched by a regular expression, or without location tracking
+    private static final String[] variants = {"word", "byte", "regexKeywords", "noLocations"};
+
+    // Matches a benchmark result line of a results file
+    private static final Pattern resultPattern = Pattern.compile("\"name\": \"(\\w+)\", \"variant\": \"(\\w+)\""
+            + ".*\"tokensPerSecond\": ([\\d.]+).*\"bytesPerToken\": ([\\d.]+)");
+
+
+    //*** Data Members ***//
+
+    // The inputs of the benchmarks, by benchmark name (in insertion order, which is the order they are run
+    // and reported in)
+    private final Map<String, byte[]> inputs = new LinkedHashMap<>();
+
+    // Accumulates the scanned tokens, so that the JIT can't eliminate the tokenizing work
+    private long sink;
+
+
+    /**
+     * Creates the benchmark inputs.
+     */
+    private TokenizerBenchmark() {
+        inputs.put("comments", commentHeavyInput());
+        inputs.put("strings", stringHeavyInput());
+        inputs.put("nestedExpressions", nestedExpressionsInput());
+        inputs.put("largeClass", largeClassInput());
+    }
+
+
+    /**
+     * Appends subroutines of the given body to a class, until it reaches the given size.
+     */
+    private static byte[] repeatSubroutines(String body, int size) {
+
+        StringBuilder source = new StringBuilder("class Bench {\n");
+        for (int i = 0; source.length() < size; i++) {
+            source.append("    method int f").append(i).append("(int a, int b) {\n")
+                  .append(body)
+                  .append("        return a;\n    }\n");
+        }
+        return source.append("}\n").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * @return an input consisting mostly of doc, block and line comments.
+     */
+    private static byte[] commentHeavyInput() {
+        return repeatSubroutines(
+                "        /** Documents the following statement, in a rather lengthy manner,\n"
+                + "         * as generated code often does. */\n"
+                + "        let a = a + 1; // and explains the increment as well\n"
+                + "        /* a block comment */ let b = b - 1; /* another one */\n"
+                + "        // a line comment\n"
+                + "        // and another line comment\n", INPUT_SIZE);
+    }
+
+
+    /**
+     * @return an input with long string constants.
+     */
+    private static byte[] stringHeavyInput() {
+
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 200) {
+            text.append("The quick brown fox jumps over the lazy dog. ");
+        }
+        return repeatSubroutines(
+                "        do Output.printString(\"" + text + "\");\n"
+                + "        let a = \"" + text + "\";\n", INPUT_SIZE);
+    }
+
+
+    /**
+     * @return an input with deeply nested expressions.
+     */
+    private static byte[] nestedExpressionsInput() {
+
+        StringBuilder expression = new StringBuilder("a");
+        for (int i = 0; i < NESTING_DEPTH; i++) {
+            expression.insert(0, "(b + ").append(" * ").append(i).append(")");
+        }
+        return repeatSubroutines("        let a = -(" + expression + ") & ~(a[b] | Math.max(a, b));\n",
+                INPUT_SIZE);
+    }
+
+
+    /**
+     * @return a large synthetic class, mixing all kinds of lexical elements.
+     */
+    private static byte[] largeClassInput() {
+        return repeatSubroutines(
+                "        var int i, j; // locals\n"
+                + "        /** Documentation. */\n"
+                + "        let i = (a + b) * 17 - (a / 3);\n"
+                + "        while (i > 0) { let i = i - 1; if (i = 5) { let j = ~j; } else { let a = a + i; } }\n"
+                + "        do Output.printString(\"a string constant with some text\");\n", LARGE_INPUT_SIZE);
+    }
+
+
+    /**
+     * Tokenizes an input once.
+     *
+     * @return the number of tokens in the input.
+     */
+    private int tokenize(byte[] input) {
+
+        JackTokenizer tokenizer = JackTokenizer.fromSource(input, new IdentifierPool());
+        int tokens = 0;
+
+        while (tokenizer.tokenType() != null) {
+            sink += tokenizer.tokenType().ordinal();
+            tokens++;
+            tokenizer.advance();
+        }
+        return tokens;
+    }
+
+
+    /**
+     * @return the number of bytes allocated so far by the current thread.
+     */
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+
+    /**
+     * Switches the tokenizer to the given variant (see the variants array).
+     */
+    private static void useVariant(String variant) {
+        JackTokenizer.setWordScanning(!variant.equals("byte"));
+        JackTokenizer.setKeywordHashing(!variant.equals("regexKeywords"));
+        JackTokenizer.setLocationTracking(!variant.equals("noLocations"));
+    }
+
+
+    /**
+     * Runs a single benchmark with every variant of the tokenizer.
+     * The iterations of the variants are interleaved, so that they are all measured in the same conditions
+     *  (of the JIT compiler, the garbage collector and the machine), and can be compared.
+     *
+     * @param name the name of the benchmark.
+     * @return the results of the benchmark with every variant (in the order of the variants array),
+     *  as JSON objects.
+     */
+    private String[] run(String name) {
+
+        byte[] input = inputs.get(name);
+        int tokens = 0;
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            for (String variant : variants) {
+                useVariant(variant);
+                tokens = tokenize(input);
+            }
+        }
+
+        long[] bestTimes = new long[variants.length];
+        long[] allocated = new long[variants.length];
+        Arrays.fill(bestTimes, Long.MAX_VALUE);
+
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            for (int v = 0; v < variants.length; v++) {
+                useVariant(variants[v]);
+                long startBytes = allocatedBytes();
+                long startTime = System.nanoTime();
+                tokenize(input);
+                bestTimes[v] = Math.min(bestTimes[v], System.nanoTime() - startTime);
+                allocated[v] += allocatedBytes() - startBytes;
+            }
+        }
+
+        String[] results = new String[variants.length];
+        for (int v = 0; v < variants.length; v++) {
+            double seconds = bestTimes[v] / 1e9;
+            results[v] = String.format(Locale.ROOT, "{\"name\": \"%s\", \"variant\": \"%s\", \"inputBytes\": %d, "
+                            + "\"tokens\": %d, \"tokensPerSecond\": %.0f, \"megabytesPerSecond\": %.2f, "
+                            + "\"bytesPerToken\": %.3f}",
+                    name, variants[v], input.length, tokens, tokens / seconds, input.length / seconds / (1 << 20),
+                    (double) allocated[v] / MEASURED_ITERATIONS / tokens);
+        }
+        return results;
+    }
+
+
+    /**
+     * Parses benchmark results.
+     *
+     * @param lines the lines of a results file.
+     * @return the tokens per second and bytes per token of every benchmark, by benchmark name and variant
+     *  (separated by a space).
+     */
+    private static Map<String, double[]> parseResults(List<String> lines) {
+
+        Map<String, double[]> results = new HashMap<>();
+
+        for (String line : lines) {
+            Matcher matcher = resultPattern.matcher(line);
+            if (matcher.find()) {
+                results.put(matcher.group(1) + " " + matcher.group(2),
+                            new double[] {Double.parseDouble(matcher.group(3)), Double.parseDouble(matcher.group(4))});
+            }
+        }
+        return results;
+    }
+
+
+    /**
+     * Runs all the benchmarks, writes their results as JSON,
+     *  and compares them against a baseline if one is given.
+     *
+     * @param args command line argument array (see class description).
+     */
+    public static void main(String[] args) throws IOException {
+
+        String outputPath = null;
+        String baselinePath = null;
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("-o")) {
+                outputPath = args[i + 1];
+            }
+            else if (args[i].equals("-b")) {
+                baselinePath = args[i + 1];
+            }
+        }
+
+        TokenizerBenchmark benchmark = new TokenizerBenchmark();
+        StringBuilder json = new StringBuilder("[\n");
+        String[] names = benchmark.inputs.keySet().toArray(new String[0]);
+        String[] results = new String[names.length * variants.length];
+
+        for (int i = 0; i < names.length; i++) {
+            System.arraycopy(benchmark.run(names[i]), 0, results, i * variants.length, variants.length);
+        }
+        for (int i = 0; i < results.length; i++) {
+            json.append("  ").append(results[i]).append(i + 1 < results.length ? ",\n" : "\n");
+        }
+        json.append("]\n");
+
+        if (outputPath != null) {
+            try (PrintWriter writer = new PrintWriter(outputPath, "UTF-8")) {
+                writer.print(json);
+            }
+        }
+        else {
+            System.out.print(json);
+        }
+
+        Map<String, double[]> current = parseResults(Arrays.asList(results));
+        for (String name : names) {
+            double throughput = current.get(name + " word")[0];
+            System.err.printf(Locale.ROOT, "%-20s word scanning speedup x%.2f, keyword hashing speedup x%.2f, "
+                              + "location tracking cost %.1f%%%n",
+                    name, throughput / current.get(name + " byte")[0],
+                    throughput / current.get(name + " regexKeywords")[0],
+                    100 * (1 - throughput / current.get(name + " noLocations")[0]));
+        }
+
+        if (baselinePath != null) {
+            Map<String, double[]> baseline = parseResults(Files.readAllLines(Paths.get(baselinePath),
+                                                                             StandardCharsets.UTF_8));
+
+            for (int i = 0; i < results.length; i++) {
+                String key = names[i / variants.length] + " " + variants[i % variants.length];
+                if (baseline.containsKey(key)) {
+                    System.err.printf(Locale.ROOT, "%-32s throughput x%.2f, allocation %+.3f bytes/token%n", key,
+                            current.get(key)[0] / baseline.get(key)[0],
+                            current.get(key)[1] - baseline.get(key)[1]);
+                }
+            }
+        }
+    }
+}